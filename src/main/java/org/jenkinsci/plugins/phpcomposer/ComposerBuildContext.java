@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-build holder of the composer installation resolved for the node the build runs on.
+ * Resolution (lookup, tool installation on the node) is done once and reused by every process
+ * launched by the build, it is redone only when the build moves to another node.
+ */
+public class ComposerBuildContext extends InvisibleAction {
+
+    private static final AtomicLong TOTAL_AVOIDED_RESOLUTIONS = new AtomicLong();
+
+    private final transient String composerInstallationName;
+    private transient String nodeName;
+    private transient ComposerInstallation installation;
+    private transient long avoidedResolutions;
+    private transient volatile ComposerLogFilter logFilter;
+
+    public ComposerBuildContext(String composerInstallationName) {
+        this.composerInstallationName = composerInstallationName;
+    }
+
+    /**
+     * @return composer installation translated for the given node, resolved at most once per node
+     */
+    public synchronized ComposerInstallation resolve(Node node, TaskListener listener) throws IOException, InterruptedException {
+        String currentNodeName = node == null ? null : node.getNodeName();
+        if (installation != null && currentNodeName != null && currentNodeName.equals(nodeName)) {
+            avoidedResolutions++;
+            TOTAL_AVOIDED_RESOLUTIONS.incrementAndGet();
+            return installation;
+        }
+
+        ComposerInstallation resolved = ComposerPlugin.instance().findInstallationByName(composerInstallationName);
+        if (node != null) {
+            resolved = resolved.forNode(node, listener);
+        }
+        installation = resolved;
+        nodeName = currentNodeName;
+        return resolved;
+    }
+
+    /**
+     * @return console filter of the build, null when composer output is not collapsed
+     */
+    public ComposerLogFilter getLogFilter() {
+        return logFilter;
+    }
+
+    public void setLogFilter(ComposerLogFilter logFilter) {
+        this.logFilter = logFilter;
+    }
+
+    /**
+     * Writes out collapsed composer output, if any, so the failure can be diagnosed.
+     */
+    public void dumpLog() throws IOException {
+        ComposerLogFilter filter = logFilter;
+        if (filter != null) {
+            filter.dumpSuppressed();
+        }
+    }
+
+    public synchronized long getAvoidedResolutions() {
+        return avoidedResolutions;
+    }
+
+    /**
+     * @return number of avoided resolutions across all builds since Jenkins start
+     */
+    public static long getTotalAvoidedResolutions() {
+        return TOTAL_AVOIDED_RESOLUTIONS.get();
+    }
+}
@@ -5,43 +5,264 @@ import hudson.*;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by marcin on 24.07.15.
  */
 public class ComposerBuildWrapper extends BuildWrapper {
 
+    public static final int DEFAULT_SNAPSHOT_RETENTION = 5;
+
     private String composerInstallationName;
+    private boolean installDependencies;
+    private boolean vendorSnapshots;
+    private int snapshotRetention = DEFAULT_SNAPSHOT_RETENTION;
+    private boolean prefetchDists;
+    private int prefetchConcurrency = DistPrefetcher.DEFAULT_CONCURRENCY;
+    private boolean reduceLog;
+    private int logBufferLines = ComposerLogFilter.DEFAULT_BUFFER_LINES;
+    private boolean useRepository;
+    private String projectGlobs;
 
     @DataBoundConstructor
     public ComposerBuildWrapper(String composerInstallationName) {
         this.composerInstallationName = composerInstallationName;
     }
 
+    /**
+     * XStream does not run field initializers, jobs saved before a setting existed get its default here.
+     */
+    protected Object readResolve() {
+        if (snapshotRetention <= 0) {
+            snapshotRetention = DEFAULT_SNAPSHOT_RETENTION;
+        }
+        if (prefetchConcurrency <= 0) {
+            prefetchConcurrency = DistPrefetcher.DEFAULT_CONCURRENCY;
+        }
+        return this;
+    }
+
+    public boolean isInstallDependencies() {
+        return installDependencies;
+    }
+
+    @DataBoundSetter
+    public void setInstallDependencies(boolean installDependencies) {
+        this.installDependencies = installDependencies;
+    }
+
+    public boolean isVendorSnapshots() {
+        return vendorSnapshots;
+    }
+
+    @DataBoundSetter
+    public void setVendorSnapshots(boolean vendorSnapshots) {
+        this.vendorSnapshots = vendorSnapshots;
+    }
+
+    public int getSnapshotRetention() {
+        return snapshotRetention;
+    }
+
+    @DataBoundSetter
+    public void setSnapshotRetention(int snapshotRetention) {
+        this.snapshotRetention = Math.max(1, snapshotRetention);
+    }
+
+    public boolean isPrefetchDists() {
+        return prefetchDists;
+    }
+
+    @DataBoundSetter
+    public void setPrefetchDists(boolean prefetchDists) {
+        this.prefetchDists = prefetchDists;
+    }
+
+    public int getPrefetchConcurrency() {
+        return prefetchConcurrency;
+    }
+
+    @DataBoundSetter
+    public void setPrefetchConcurrency(int prefetchConcurrency) {
+        this.prefetchConcurrency = Math.max(1, prefetchConcurrency);
+    }
+
+    public boolean isReduceLog() {
+        return reduceLog;
+    }
+
+    @DataBoundSetter
+    public void setReduceLog(boolean reduceLog) {
+        this.reduceLog = reduceLog;
+    }
+
+    public int getLogBufferLines() {
+        return logBufferLines;
+    }
+
+    @DataBoundSetter
+    public void setLogBufferLines(int logBufferLines) {
+        this.logBufferLines = Math.max(0, logBufferLines);
+    }
+
+    public boolean isUseRepository() {
+        return useRepository;
+    }
+
+    @DataBoundSetter
+    public void setUseRepository(boolean useRepository) {
+        this.useRepository = useRepository;
+    }
+
+    /**
+     * @return comma separated globs of the composer.json files of a multi-project workspace, null for a single project at the root
+     */
+    public String getProjectGlobs() {
+        return projectGlobs;
+    }
+
+    @DataBoundSetter
+    public void setProjectGlobs(String projectGlobs) {
+        this.projectGlobs = Util.fixEmptyAndTrim(projectGlobs);
+    }
+
+    @Override
+    public OutputStream decorateLogger(AbstractBuild build, OutputStream logger) throws IOException, InterruptedException, Run.RunnerAbortedException {
+        if (!reduceLog) {
+            return logger;
+        }
+        ComposerLogFilter filter = new ComposerLogFilter(logger, build.getCharset(), logBufferLines);
+        getContext(build).setLogFilter(filter);
+        return filter;
+    }
+
     @Override
     public Environment setUp(AbstractBuild build, Launcher launcher,
                              BuildListener listener) throws IOException, InterruptedException {
+        final ComposerBuildContext context = getContext(build);
+        final ComposerInstallation installation = context.resolve(build.getBuiltOn(), listener);
+
+        final FilePath cache = installation.getCache(build.getBuiltOn());
+        final long cacheSince = cache == null ? 0 : cache.act(new ComposerCache.Prepare());
+
+        ComposerProjects projects = null;
+        List<FilePath> lockFiles = new ArrayList<FilePath>();
+        if (projectGlobs != null) {
+            projects = ComposerProjects.find(build.getWorkspace(), projectGlobs);
+            lockFiles.addAll(projects.getLockFiles());
+        } else {
+            FilePath lockFile = build.getWorkspace().child(ComposerProject.COMPOSER_LOCK);
+            if (lockFile.exists()) {
+                lockFiles.add(lockFile);
+            }
+        }
+
+        final List<String> lockPaths = new ArrayList<String>();
+        ComposerRepository repository = useRepository ? ComposerRepository.get() : null;
+        for (FilePath lockFile : lockFiles) {
+            lockPaths.add(lockFile.getRemote());
+            // composer install reads dists from the lock file, the repository reaches it through the cache
+            if ((prefetchDists || repository != null) && cache != null) {
+                DistPrefetcher prefetcher = new DistPrefetcher(cache.getRemote(), prefetchConcurrency);
+                if (repository != null) {
+                    prefetcher.withRepository(repository.getDistSource(lockFile.getChannel()));
+                }
+                listener.getLogger().println(lockFile.act(prefetcher));
+            }
+            if (repository != null) {
+                InputStream lock = lockFile.read();
+                try {
+                    repository.feed(lock);
+                } finally {
+                    lock.close();
+                }
+            }
+        }
+
+        ComposerProject.Outcome outcome = null;
+        if (installDependencies) {
+            EnvVars env = build.getEnvironment(listener);
+            installation.forEnvironment(env).buildEnvVars(env);
+
+            VendorSnapshots snapshots = vendorSnapshots ? VendorSnapshots.forNode(build.getBuiltOn(), snapshotRetention) : null;
+            if (projects != null) {
+                ComposerProjects.Report report = projects.install(build.getBuiltOn(), launcher, env, listener, snapshots, build.getCharset());
+                listener.getLogger().println(report);
+                outcome = report.getOutcome();
+            } else {
+                outcome = new ComposerProject(build.getWorkspace()).install(launcher, env, listener, snapshots);
+            }
+            if (outcome == ComposerProject.Outcome.FAILED) {
+                context.dumpLog();
+                return null;
+            }
+        }
+        final ComposerProject.Outcome installOutcome = outcome;
+        final Map<String, String> binVariables = projects == null
+                ? Collections.<String, String>emptyMap() : projects.getBinVariables(launcher.isUnix() ? ":" : ";");
+
         return new Environment(){
+            @Override
+            public void buildEnvVars(Map<String, String> env) {
+                if (installOutcome != null) {
+                    env.put("COMPOSER_INSTALL_OUTCOME", installOutcome.toEnvValue());
+                    env.put("COMPOSER_INSTALL_SKIPPED", Boolean.toString(installOutcome.isSkipped()));
+                }
+                env.putAll(binVariables);
+            }
+
             @Override
             public boolean tearDown(AbstractBuild build, BuildListener listener)
                     throws IOException, InterruptedException {
+                if (cache != null) {
+                    ComposerCache.Report report = cache.act(new ComposerCache.Maintain(cacheSince, installation.getCacheMaxSizeBytes())
+                            .withLockFiles(lockPaths));
+                    ComposerCache.record(report);
+                    listener.getLogger().println(report);
+                }
+                listener.getLogger().println(Messages.ComposerBuildWrapper_ResolutionsAvoided(context.getAvoidedResolutions()));
+                Result result = build.getResult();
+                if (result != null && result.isWorseThan(Result.SUCCESS)) {
+                    context.dumpLog();
+                }
+                build.getActions().remove(context);
                 return true;
             }
         };
     }
 
+    private ComposerBuildContext getContext(AbstractBuild build) {
+        synchronized (build) {
+            ComposerBuildContext context = build.getAction(ComposerBuildContext.class);
+            if (context == null) {
+                context = new ComposerBuildContext(composerInstallationName);
+                build.addAction(context);
+            }
+            return context;
+        }
+    }
+
     public String getComposerInstallationName() {
         return composerInstallationName;
     }
 
     @Override
     public Launcher decorateLauncher(final AbstractBuild build, final Launcher launcher, BuildListener listener) throws IOException, InterruptedException, Run.RunnerAbortedException {
+        final ComposerBuildContext context = getContext(build);
         return new Launcher.DecoratedLauncher(launcher){
             @Override
             public Proc launch(ProcStarter starter) throws IOException {
@@ -56,32 +277,31 @@ public class ComposerBuildWrapper extends BuildWrapper {
 
                 EnvVars vars = toEnvVars(starterEnvs);
 
-                ComposerInstallation composerInstallation =
-                              ComposerPlugin.instance().findInstallationByName(composerInstallationName);
-
+                ComposerInstallation composerInstallation = null;
                 try {
-                    composerInstallation = composerInstallation.forNode(build.getBuiltOn(), listener)
-                            .forEnvironment(vars);
+                    composerInstallation = context.resolve(build.getBuiltOn(), listener).forEnvironment(vars);
                 } catch (InterruptedException e) {
                     Throwables.propagate(e);
                 }
 
                 composerInstallation.buildEnvVars(vars);
-                vars.override("PATH+PATH", build.getWorkspace().child("vendor/bin").getRemote());
+                // projects of a multi-project workspace are reached through COMPOSER_PROJECT_BIN_* instead
+                vars.override("PATH+PATH", new ComposerProject(build.getWorkspace()).getVendorBin().getRemote());
 
 
                 return super.launch(starter.envs(Util.mapToEnv(vars)));
             }
-            private EnvVars toEnvVars(String[] envs) {
-                EnvVars vars = new EnvVars();
-                for (String line : envs) {
-                    vars.addLine(line);
-                }
-                return vars;
-            }
         };
     }
 
+    static EnvVars toEnvVars(String[] envs) {
+        EnvVars vars = new EnvVars();
+        for (String line : envs) {
+            vars.addLine(line);
+        }
+        return vars;
+    }
+
     @Extension
     public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
 
@@ -103,6 +323,13 @@ public class ComposerBuildWrapper extends BuildWrapper {
             return ComposerPlugin.instance().getInstallations();
         }
 
+        /**
+         * @return number of installation resolutions avoided by reusing the per build context
+         */
+        public long getAvoidedResolutions() {
+            return ComposerBuildContext.getTotalAvoidedResolutions();
+        }
+
         public String getDisplayName() {
             return Messages.ComposerInstaller_ComposerPlugin_displayName();
         }
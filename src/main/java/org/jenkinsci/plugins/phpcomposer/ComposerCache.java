@@ -0,0 +1,240 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node wide composer package cache (COMPOSER_CACHE_DIR) maintenance.
+ * Files written since the start of the build are reported as misses, dists of the composer.lock of the build
+ * that were already cached are reported as hits and touched. The cache is trimmed back to its budget by evicting
+ * least recently touched files first: access times cannot be relied upon, relatime mounts update them once a day
+ * and noatime mounts never do.
+ */
+public final class ComposerCache {
+
+    /**
+     * Files accessed more recently than this are considered in use by other executors and never evicted.
+     */
+    private static final long IN_USE_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Hits are touched at most this often, a touched file looks like a miss to builds of the node started before.
+     */
+    private static final long TOUCH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong BYTES_SAVED = new AtomicLong();
+    private static final AtomicLong BYTES_EVICTED = new AtomicLong();
+
+    private ComposerCache() {
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static long getBytesSaved() {
+        return BYTES_SAVED.get();
+    }
+
+    public static long getBytesEvicted() {
+        return BYTES_EVICTED.get();
+    }
+
+    static void record(Report report) {
+        HITS.addAndGet(report.hits);
+        MISSES.addAndGet(report.misses);
+        BYTES_SAVED.addAndGet(report.hitBytes);
+        BYTES_EVICTED.addAndGet(report.evictedBytes);
+    }
+
+    /**
+     * Creates the cache directory if needed and returns the current time of the node,
+     * which is the reference for {@link Maintain}.
+     */
+    public static final class Prepare extends MasterToSlaveFileCallable<Long> {
+        @Override
+        public Long invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create composer cache directory " + dir);
+            }
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Reports cache hits and misses since a given node time and evicts least recently used files over budget.
+     */
+    public static final class Maintain extends MasterToSlaveFileCallable<Report> {
+
+        // several executors of the same agent share one cache, they are all served by the same agent JVM
+        private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+        private final long since;
+        private final long maxBytes;
+        private final List<String> lockFiles = new ArrayList<String>();
+
+        public Maintain(long since, long maxBytes) {
+            this.since = since;
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @param lockFiles composer.lock files of the build on the node, their cached dists are the hits
+         */
+        public Maintain withLockFiles(List<String> lockFiles) {
+            this.lockFiles.addAll(lockFiles);
+            return this;
+        }
+
+        @Override
+        public Report invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            String key = dir.getCanonicalPath();
+            LOCKS.putIfAbsent(key, new Object());
+            synchronized (LOCKS.get(key)) {
+                return maintain(dir);
+            }
+        }
+
+        private Report maintain(File dir) throws IOException {
+            Report report = new Report();
+            long now = System.currentTimeMillis();
+            Set<File> hits = hits(dir);
+            for (File hit : hits) {
+                report.hits++;
+                report.hitBytes += hit.length();
+                if (hit.lastModified() < now - TOUCH_INTERVAL_MILLIS) {
+                    hit.setLastModified(now);
+                }
+            }
+
+            List<Entry> entries = new ArrayList<Entry>();
+            collect(dir, entries);
+            for (Entry entry : entries) {
+                report.files++;
+                report.bytes += entry.size;
+                // touched hits are as recent as a download now
+                if (entry.modified >= since && !hits.contains(entry.file)) {
+                    report.misses++;
+                    report.missBytes += entry.size;
+                }
+            }
+
+            if (maxBytes <= 0 || report.bytes <= maxBytes) {
+                return report;
+            }
+
+            Collections.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return o1.modified < o2.modified ? -1 : (o1.modified == o2.modified ? 0 : 1);
+                }
+            });
+
+            long inUse = now - IN_USE_GRACE_MILLIS;
+            for (Entry entry : entries) {
+                if (report.bytes <= maxBytes || entry.modified >= inUse) {
+                    break;
+                }
+                if (entry.file.delete()) {
+                    report.files--;
+                    report.bytes -= entry.size;
+                    report.evicted++;
+                    report.evictedBytes += entry.size;
+                }
+            }
+            return report;
+        }
+
+        /**
+         * @return dists of the lock files that were in the cache before the build started
+         */
+        private Set<File> hits(final File dir) throws IOException {
+            final Set<File> hits = new HashSet<File>();
+            for (String lockFile : lockFiles) {
+                File file = new File(lockFile);
+                if (!file.exists()) {
+                    continue;
+                }
+                LockedPackage.read(file, false, new LockedPackage.Visitor() {
+                    @Override
+                    public void visit(LockedPackage pkg) throws IOException {
+                        String path = DistPrefetcher.cacheFile(pkg.name, pkg.distUrl,
+                                pkg.distType.isEmpty() ? "zip" : pkg.distType, pkg.distReference);
+                        if (path == null) {
+                            return;
+                        }
+                        File dist = new File(dir, DistPrefetcher.CACHE_FILES_DIR + "/" + path);
+                        if (dist.isFile() && dist.lastModified() < since) {
+                            hits.add(dist);
+                        }
+                    }
+                });
+            }
+            return hits;
+        }
+
+        private void collect(File dir, List<Entry> entries) {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    collect(child, entries);
+                } else {
+                    entries.add(new Entry(child));
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final File file;
+        private final long size;
+        private final long modified;
+
+        Entry(File file) {
+            this.file = file;
+            this.size = file.length();
+            this.modified = file.lastModified();
+        }
+    }
+
+    public static final class Report implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long files;
+        long bytes;
+        long hits;
+        long hitBytes;
+        long misses;
+        long missBytes;
+        long evicted;
+        long evictedBytes;
+
+        @Override
+        public String toString() {
+            return Messages.ComposerCache_Report(hits, hitBytes, misses, missBytes, evicted, evictedBytes, files, bytes);
+        }
+    }
+}
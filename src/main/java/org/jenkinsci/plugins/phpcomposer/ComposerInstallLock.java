@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes installation and refresh of a composer tool on a node.
+ * Threads of the controller are coordinated by a striped lock, a lock file next to the installation directory
+ * covers installations interrupted by a controller restart and other controllers sharing the agent.
+ * The lock file is touched periodically while held, one not touched for several periods is left over by an owner
+ * which is gone.
+ */
+public final class ComposerInstallLock {
+
+    static final String LOCK_SUFFIX = ".lock";
+
+    static long HEARTBEAT_MILLIS = Long.getLong(ComposerInstallLock.class.getName() + ".heartbeatMillis", TimeUnit.SECONDS.toMillis(10));
+    static long POLL_MILLIS = Long.getLong(ComposerInstallLock.class.getName() + ".pollMillis", TimeUnit.SECONDS.toMillis(1));
+    private static final int STALE_HEARTBEATS = 6;
+    private static final ScheduledExecutorService HEARTBEAT = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "PHP Composer install lock heartbeat"));
+    private static final ConcurrentMap<String, ScheduledFuture<?>> HEARTBEATS = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+    private static final ReentrantLock[] STRIPES = new ReentrantLock[32];
+    private static final String SESSION = UUID.randomUUID().toString();
+
+    static {
+        for (int i = 0; i < STRIPES.length; i++) {
+            STRIPES[i] = new ReentrantLock();
+        }
+    }
+
+    private final ReentrantLock stripe;
+    private final FilePath lockFile;
+
+    private ComposerInstallLock(String key, FilePath dir) {
+        this.stripe = STRIPES[(key.hashCode() & Integer.MAX_VALUE) % STRIPES.length];
+        // installation directory contents may be wiped while installing, the lock lives beside it
+        this.lockFile = dir.sibling(dir.getName() + LOCK_SUFFIX);
+    }
+
+    public static ComposerInstallLock of(Node node, String toolName, FilePath dir) {
+        return new ComposerInstallLock(key(node, toolName), dir);
+    }
+
+    static String key(Node node, String toolName) {
+        return node.getNodeName() + "/" + toolName;
+    }
+
+    /**
+     * Blocks until no other thread of this controller installs the tool, the lock file is then taken on the node
+     * by {@link #acquire(File, String)} within the same remoting call as the installation itself.
+     */
+    public void lock() throws InterruptedException {
+        stripe.lockInterruptibly();
+    }
+
+    /**
+     * @return false without waiting if another thread holds the lock
+     */
+    public boolean tryLock() {
+        return stripe.tryLock();
+    }
+
+    public void unlock() {
+        stripe.unlock();
+    }
+
+    public String getLockFile() {
+        return lockFile.getRemote();
+    }
+
+    static String owner() {
+        return Jenkins.getInstance().getLegacyInstanceId() + "#" + SESSION;
+    }
+
+    /**
+     * Takes the lock file, runs on the node. The lock file is kept fresh until {@link #release(File, String)}.
+     * @return true if a previous owner left the lock behind, meaning its installation may be incomplete
+     */
+    static boolean acquire(File lockFile, String owner) throws IOException, InterruptedException {
+        File dir = lockFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        boolean stale = false;
+        while (!lockFile.createNewFile()) {
+            if (isStale(lockFile, owner)) {
+                stale |= breakLock(lockFile, owner);
+            } else {
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+        FileUtils.writeStringToFile(lockFile, owner, "UTF-8");
+        final File heartbeat = lockFile;
+        HEARTBEATS.put(lockFile.getAbsolutePath(), HEARTBEAT.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat.setLastModified(System.currentTimeMillis());
+            }
+        }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS));
+        return stale;
+    }
+
+    static void release(File lockFile, String owner) throws IOException {
+        ScheduledFuture<?> heartbeat = HEARTBEATS.remove(lockFile.getAbsolutePath());
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        if (lockFile.exists() && FileUtils.readFileToString(lockFile, "UTF-8").equals(owner)) {
+            lockFile.delete();
+        }
+    }
+
+    /**
+     * Moves a stale lock file away under a unique name first, so two waiters breaking the same stale lock
+     * cannot delete the lock file one of them created in the meantime.
+     * @return true if the stale lock was removed, false if it turned out to be held again
+     */
+    private static boolean breakLock(File lockFile, String owner) throws IOException {
+        File broken = new File(lockFile.getPath() + "." + UUID.randomUUID() + ".stale");
+        if (!lockFile.renameTo(broken)) {
+            return false;
+        }
+        if (!isStale(broken, owner) && !lockFile.exists() && broken.renameTo(lockFile)) {
+            // taken over by a live owner between the check and the rename, given back
+            return false;
+        }
+        broken.delete();
+        return true;
+    }
+
+    private static boolean isStale(File lockFile, String owner) throws IOException {
+        if (!lockFile.exists()) {
+            return false;
+        }
+        if (lockFile.lastModified() + STALE_HEARTBEATS * HEARTBEAT_MILLIS < System.currentTimeMillis()) {
+            return true;
+        }
+        String holder = FileUtils.readFileToString(lockFile, "UTF-8");
+        String controller = owner.substring(0, owner.indexOf('#') + 1);
+        // same controller in a previous session: it was restarted while installing
+        return holder.startsWith(controller) && !holder.equals(owner);
+    }
+}
@@ -0,0 +1,649 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Whole installation or refresh of a composer tool, executed on the node in a single remoting exchange.
+ * Installation lock, download, installer run, global dependencies reconciliation and marker files are all
+ * handled here; the outcome is returned as a {@link Result} the controller turns into logs and metrics.
+ */
+public class ComposerInstallPlan extends MasterToSlaveFileCallable<ComposerInstallPlan.Result> {
+
+    static final String INSTALLER = "installer";
+    static final String VERSION_MARKER = ".composerVersion";
+    static final String COMPOSER_DEPENDENCIES_LAST_UPDATE = ".composerLastUpdate";
+    static final String COMPOSER_JSON = "composer.json";
+    static final String COMPOSER_LOCK = "composer.lock";
+    static final String STAGING_DIR = ".staging";
+    static final String VENDOR_DIR = "vendor";
+    static final String VENDOR_TREE_PREFIX = ".vendor-";
+    static final String VENDOR_NEXT = VENDOR_TREE_PREFIX + "next";
+
+    private final boolean refresh;
+    private final String lockFile;
+    private final String owner;
+    private final TaskListener listener;
+
+    private String dependencies;
+    private long refreshIntervalMillis;
+    private boolean idle;
+    private String installerUrl;
+    private String signatureUrl;
+    private ComposerMirror.PharSource phar;
+    private String pharSha256;
+    private String version;
+    private String store;
+    private PhpProfile profile;
+
+    private ComposerInstallPlan(boolean refresh, String lockFile, String owner, TaskListener listener) {
+        this.refresh = refresh;
+        this.lockFile = lockFile;
+        this.owner = owner;
+        this.listener = listener;
+    }
+
+    /**
+     * Installs composer when missing or outdated and reconciles global dependencies.
+     */
+    public static ComposerInstallPlan install(ComposerInstallLock lock, String dependencies, TaskListener listener) {
+        ComposerInstallPlan plan = new ComposerInstallPlan(false, lock.getLockFile(), ComposerInstallLock.owner(), listener);
+        plan.dependencies = dependencies;
+        return plan;
+    }
+
+    /**
+     * Refreshes composer and global dependencies of an existing installation once the interval elapsed.
+     * @param idle true if no build runs on the node, vendor trees which are not symbolic links are only replaced then
+     */
+    public static ComposerInstallPlan refresh(ComposerInstallLock lock, long refreshIntervalMillis, boolean idle, TaskListener listener) {
+        ComposerInstallPlan plan = new ComposerInstallPlan(true, lock.getLockFile(), ComposerInstallLock.owner(), listener);
+        plan.refreshIntervalMillis = refreshIntervalMillis;
+        plan.idle = idle;
+        return plan;
+    }
+
+    /**
+     * Composer is installed by downloading and running the installer script from the node.
+     * @param signatureUrl published SHA-384 of the installer, the script is verified against
+     */
+    public ComposerInstallPlan withInstallerUrl(String installerUrl, String signatureUrl) {
+        this.installerUrl = installerUrl;
+        this.signatureUrl = signatureUrl;
+        return this;
+    }
+
+    /**
+     * Composer is the given phar of the controller mirror. The node opens it only if neither the installation
+     * nor the node store already hold that release, so up to date nodes receive nothing but the checksum.
+     */
+    public ComposerInstallPlan withPhar(ComposerMirror.PharSource phar, String sha256) {
+        this.phar = phar;
+        this.pharSha256 = sha256;
+        return this;
+    }
+
+    /**
+     * Composer is pinned to the given release instead of following the latest one.
+     */
+    public ComposerInstallPlan withVersion(String version) {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * Phars are shared with other installations of the node through the given {@link ComposerStore}.
+     */
+    public ComposerInstallPlan withStore(String store) {
+        this.store = store;
+        return this;
+    }
+
+    /**
+     * Installer commands run with the given PHP settings, which are also written to the installation for builds.
+     */
+    public ComposerInstallPlan withProfile(PhpProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    @Override
+    public Result invoke(File home, VirtualChannel channel) throws IOException, InterruptedException {
+        Result result = new Result();
+        if (refresh && !home.isDirectory()) {
+            // nothing to refresh, the lock file would be left next to an installation that does not exist
+            return result;
+        }
+        File lock = new File(lockFile);
+        if (ComposerInstallLock.acquire(lock, owner)) {
+            listener.getLogger().println(Messages.ComposerInstaller_InterruptedInstallation());
+            reset(home);
+        }
+        try {
+            if (refresh) {
+                refresh(home, result);
+            } else {
+                install(home, result);
+            }
+        } finally {
+            ComposerInstallLock.release(lock, owner);
+        }
+        return result;
+    }
+
+    /**
+     * Forgets markers of an installation which may have been interrupted, so it is done again from scratch.
+     */
+    private void reset(File home) throws IOException {
+        ResumableDownload.forget(new File(home, INSTALLER));
+        new File(home, VERSION_MARKER).delete();
+        new File(home, ComposerMirror.markerName(ComposerInstaller.COMPOSER_EXE_NAME)).delete();
+        new File(home, ComposerInstaller.COMPOSER_DEPENDENCIES_STATE).delete();
+        Util.deleteRecursive(new File(home, STAGING_DIR));
+    }
+
+    private void install(File home, Result result) throws IOException, InterruptedException {
+        File exe = new File(home, ComposerInstaller.COMPOSER_EXE_NAME);
+        if (version != null && exe.exists() && version.equals(readVersion(home))) {
+            // a pinned release never changes, nothing to check remotely
+            result.skips.add(ComposerMetrics.SkipReason.UP_TO_DATE);
+        } else if (version != null && store != null && new ComposerStore(new File(store)).linkVersion(version, exe)) {
+            listener.getLogger().println(Messages.ComposerInstallPlan_LinkedFromStore(version));
+            writeVersion(home);
+            result.installed = true;
+        } else if (phar != null) {
+            result.installed = receivePhar(home, result);
+        } else if (download(home, result)) {
+            ArgumentListBuilder args = new ArgumentListBuilder();
+            args.add("--");
+            args.addKeyValuePair("--", "install-dir", home.getPath(), false);
+            args.addKeyValuePair("--", "filename", ComposerInstaller.COMPOSER_EXE_NAME, false);
+            if (version != null) {
+                args.addKeyValuePair("--", "version", version, false);
+            }
+            if (php(home, new File(home, INSTALLER), args, ComposerMetrics.Phase.INSTALLER, result) != 0) {
+                listener.error(Messages.ComposerInstaller_InstallationFailed());
+                result.installerFailed = true;
+                return;
+            }
+            result.installed = true;
+            writeVersion(home);
+            adopt(exe);
+        } else if (result.installerUnavailable) {
+            return;
+        }
+        if (result.installed) {
+            listener.getLogger().println(Messages.ComposerInstaller_InstallationCompleted());
+        } else {
+            listener.getLogger().println("Installation skipped...");
+        }
+
+        if (profile != null) {
+            profile.apply(home);
+        }
+        linkVendor(home);
+        result.dependenciesInstalled = requireDependencies(home, result);
+
+        // updates are left to ComposerRefreshWork so builds never wait for them
+        File lastUpdate = new File(home, COMPOSER_DEPENDENCIES_LAST_UPDATE);
+        if (!lastUpdate.exists()) {
+            FileUtils.writeStringToFile(lastUpdate, Long.toString(System.currentTimeMillis()), "UTF-8");
+        }
+    }
+
+    private void refresh(File home, Result result) throws IOException, InterruptedException {
+        if (!new File(home, ComposerInstaller.COMPOSER_EXE_NAME).exists() || !isUpdateNeeded(home)) {
+            return;
+        }
+        File vendor = new File(home, VENDOR_DIR);
+        if (vendor.exists() && !Util.isSymlink(vendor)) {
+            if (!idle) {
+                // builds may be running tools from vendor, it cannot be moved away under their feet
+                result.skips.add(ComposerMetrics.SkipReason.NODE_BUSY);
+                return;
+            }
+            migrateVendor(home);
+        }
+        linkVendor(home);
+
+        boolean updated = true;
+        if (phar != null) {
+            receivePhar(home, result);
+        } else if (version == null) {
+            // self-update writes the new phar aside and renames it over the old one
+            ArgumentListBuilder selfUpdate = new ArgumentListBuilder();
+            selfUpdate.add("self-update");
+            updated = composer(home, selfUpdate, ComposerMetrics.Phase.SELF_UPDATE, result) == 0;
+            if (updated) {
+                adopt(new File(home, ComposerInstaller.COMPOSER_EXE_NAME));
+            }
+        }
+
+        File composerJson = new File(home, COMPOSER_JSON);
+        if (composerJson.exists()) {
+            File staging = new File(home, STAGING_DIR);
+            Util.deleteRecursive(staging);
+            if (!staging.mkdirs()) {
+                throw new IOException("Unable to create " + staging);
+            }
+            FileUtils.copyFileToDirectory(composerJson, staging);
+            File lock = new File(home, COMPOSER_LOCK);
+            if (lock.exists()) {
+                FileUtils.copyFileToDirectory(lock, staging);
+            }
+
+            ArgumentListBuilder update = new ArgumentListBuilder();
+            update.add("update");
+            update.add("--no-interaction");
+            update.addKeyValuePair("--", "working-dir", staging.getPath(), false);
+            if (composer(home, update, ComposerMetrics.Phase.GLOBAL_UPDATE, result) == 0) {
+                swapVendor(home, staging);
+            } else {
+                updated = false;
+            }
+            Util.deleteRecursive(staging);
+        }
+
+        if (updated) {
+            FileUtils.writeStringToFile(new File(home, COMPOSER_DEPENDENCIES_LAST_UPDATE), Long.toString(System.currentTimeMillis()), "UTF-8");
+        }
+        result.refreshed = updated;
+    }
+
+    private boolean isUpdateNeeded(File home) throws IOException {
+        File lastUpdateFile = new File(home, COMPOSER_DEPENDENCIES_LAST_UPDATE);
+        if (!lastUpdateFile.exists()) {
+            return true;
+        }
+        try {
+            long lastUpdate = Long.parseLong(FileUtils.readFileToString(lastUpdateFile, "UTF-8").trim());
+            return lastUpdate + refreshIntervalMillis <= System.currentTimeMillis();
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private boolean receivePhar(File home, Result result) throws IOException {
+        String exeName = ComposerInstaller.COMPOSER_EXE_NAME;
+        File exe = new File(home, exeName);
+        File marker = new File(home, ComposerMirror.markerName(exeName));
+        if (exe.exists() && marker.exists()
+                && FileUtils.readFileToString(marker, "UTF-8").trim().equals(pharSha256)) {
+            return false;
+        }
+        if (store != null && new ComposerStore(new File(store)).linkPhar(pharSha256, exe)) {
+            // another installation of the node already received this release
+            FileUtils.writeStringToFile(marker, pharSha256, "UTF-8");
+            writeVersion(home);
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        boolean received = false;
+        try {
+            InputStream in = phar.open();
+            try {
+                result.bytes += ComposerMirror.receive(in, pharSha256, home, exeName);
+            } finally {
+                in.close();
+            }
+            received = true;
+        } finally {
+            result.record(ComposerMetrics.Phase.MIRROR_TRANSFER, start, received);
+        }
+        writeVersion(home);
+        adopt(exe);
+        return true;
+    }
+
+    private void adopt(File exe) {
+        if (store != null && exe.exists()) {
+            try {
+                new ComposerStore(new File(store)).adopt(exe, version);
+            } catch (IOException e) {
+                // the installation works without the store, it is only not shared
+                listener.getLogger().println("Unable to share " + exe + " through the node store: " + e);
+            }
+        }
+    }
+
+    private static String readVersion(File home) throws IOException {
+        File marker = new File(home, VERSION_MARKER);
+        return marker.exists() ? FileUtils.readFileToString(marker, "UTF-8").trim() : null;
+    }
+
+    private void writeVersion(File home) throws IOException {
+        File marker = new File(home, VERSION_MARKER);
+        if (version == null) {
+            marker.delete();
+        } else {
+            FileUtils.writeStringToFile(marker, version, "UTF-8");
+        }
+    }
+
+    /**
+     * Downloads the installer script unless the one last downloaded is still current, see {@link ResumableDownload}.
+     * @return true if the installer was downloaded
+     */
+    private boolean download(File home, Result result) throws IOException {
+        if (!home.isDirectory() && !home.mkdirs()) {
+            throw new IOException("Unable to create " + home);
+        }
+        File target = new File(home, INSTALLER);
+        boolean installed = new File(home, ComposerInstaller.COMPOSER_EXE_NAME).exists();
+        // pinning or unpinning a release needs the installer run again even if the script did not change
+        boolean conditional = installed && version == null && readVersion(home) == null;
+        ResumableDownload download = new ResumableDownload(new URL(installerUrl), target)
+                .verify("SHA-384", new URL(signatureUrl));
+        long start = System.currentTimeMillis();
+        try {
+            if (!download.fetch(conditional)) {
+                result.skips.add(ComposerMetrics.SkipReason.NOT_MODIFIED);
+                return false;
+            }
+            listener.getLogger().println(download.isResumed()
+                    ? "PHP composer installation script downloaded, resuming an interrupted download"
+                    : "PHP composer installation script downloaded");
+            result.bytes += download.getBytes();
+            result.record(ComposerMetrics.Phase.DOWNLOAD, start, true);
+            return true;
+        } catch (IOException x) {
+            result.record(ComposerMetrics.Phase.DOWNLOAD, start, false);
+            result.bytes += download.getBytes();
+            if (installed) {
+                // whatever was last installed is still OK, the download is resumed next time
+                result.skips.add(x instanceof ResumableDownload.ServerError ? ComposerMetrics.SkipReason.SERVER_ERROR : ComposerMetrics.SkipReason.OFFLINE);
+                listener.getLogger().println("Skipping installation of " + installerUrl + " to " + home + ": " + x);
+                return false;
+            }
+            // the controller will stream composer from its mirror instead
+            listener.getLogger().println("Failed to download " + installerUrl + " from the node; will retry from the controller: " + x);
+            result.installerUnavailable = true;
+            return false;
+        }
+    }
+
+    /**
+     * Reconciles globally installed dependencies with the configured ones: only added or changed packages
+     * are required and only dropped packages are removed, order and spacing of the list do not matter.
+     */
+    private boolean requireDependencies(File home, Result result) throws IOException, InterruptedException {
+        Map<String, String> installed = readDependenciesState(home);
+        Map<String, String> configured = ComposerInstaller.parseDependencies(dependencies);
+
+        ArgumentListBuilder remove = new ArgumentListBuilder();
+        remove.add(toRemove(installed, configured));
+        ArgumentListBuilder require = new ArgumentListBuilder();
+        require.add(toRequire(installed, configured));
+
+        if (remove.toList().isEmpty() && require.toList().isEmpty()) {
+            listener.getLogger().println("Skipping dependencies installation...");
+            return true;
+        }
+
+        boolean succeeded = true;
+        if (!remove.toList().isEmpty()) {
+            listener.getLogger().println(Messages.ComposerInstaller_RemovingGlobalDependencies(remove));
+            if (composer(home, remove.prepend("global", "remove"), ComposerMetrics.Phase.GLOBAL_REMOVE, result) == 0) {
+                installed.keySet().retainAll(configured.keySet());
+            } else {
+                succeeded = false;
+            }
+        }
+        if (!require.toList().isEmpty()) {
+            listener.getLogger().println(Messages.ComposerInstaller_RequiringGlobalDependencies(require));
+            if (composer(home, require.prepend("global", "require"), ComposerMetrics.Phase.GLOBAL_REQUIRE, result) == 0) {
+                installed.putAll(configured);
+            } else {
+                succeeded = false;
+            }
+        }
+
+        //state reflects what was actually done so a failed step is retried next time
+        saveDependenciesState(home, installed);
+        return succeeded;
+    }
+
+    /**
+     * @return installed packages no longer configured, to be passed to composer global remove
+     */
+    static List<String> toRemove(Map<String, String> installed, Map<String, String> configured) {
+        List<String> remove = new ArrayList<String>();
+        for (String packageName : installed.keySet()) {
+            if (!configured.containsKey(packageName)) {
+                remove.add(packageName);
+            }
+        }
+        return remove;
+    }
+
+    /**
+     * @return configured packages not installed yet or with another constraint, to be passed to composer global require
+     */
+    static List<String> toRequire(Map<String, String> installed, Map<String, String> configured) {
+        List<String> require = new ArrayList<String>();
+        for (Map.Entry<String, String> dependency : configured.entrySet()) {
+            if (!dependency.getValue().equals(installed.get(dependency.getKey()))) {
+                require.add(dependency.getValue().isEmpty() ? dependency.getKey() : dependency.getKey() + ":" + dependency.getValue());
+            }
+        }
+        return require;
+    }
+
+    private static Map<String, String> readDependenciesState(File home) throws IOException {
+        Map<String, String> state = new TreeMap<String, String>();
+        File stateFile = new File(home, ComposerInstaller.COMPOSER_DEPENDENCIES_STATE);
+        if (!stateFile.exists()) {
+            return state;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(stateFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String packageName : properties.stringPropertyNames()) {
+            state.put(packageName, properties.getProperty(packageName));
+        }
+        return state;
+    }
+
+    private static void saveDependenciesState(File home, Map<String, String> state) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(state);
+        OutputStream out = new FileOutputStream(new File(home, ComposerInstaller.COMPOSER_DEPENDENCIES_STATE));
+        try {
+            properties.store(out, "Globally installed composer dependencies");
+        } finally {
+            out.close();
+        }
+        // checksum of the whole list used before the state file was introduced
+        new File(home, ComposerInstaller.COMPOSER_DEPENDENCIES_CHECKSUM).delete();
+    }
+
+    private int composer(File home, ArgumentListBuilder args, ComposerMetrics.Phase phase, Result result) throws IOException, InterruptedException {
+        return php(home, new File(home, ComposerInstaller.COMPOSER_EXE_NAME), args, phase, result);
+    }
+
+    /**
+     * Runs a php script with COMPOSER_HOME pointing to the installation, so global
+     * commands act on the installation rather than on the home directory of the agent user.
+     * PHP binary and settings come from the {@link PhpProfile} of the installation.
+     */
+    private int php(File home, File script, ArgumentListBuilder args, ComposerMetrics.Phase phase, Result result) throws IOException, InterruptedException {
+        ArgumentListBuilder cmd = profile == null ? new ArgumentListBuilder("php", script.getPath()) : profile.command(script.getPath());
+        cmd.add(args.toList());
+        EnvVars env = new EnvVars("COMPOSER_HOME", home.getPath());
+        if (profile != null) {
+            profile.buildEnvVars(env);
+        }
+
+        long start = System.currentTimeMillis();
+        int exitCode = -1;
+        try {
+            exitCode = new Launcher.LocalLauncher(listener).launch().cmds(cmd)
+                    .envs(env).stdout(listener).join();
+            return exitCode;
+        } finally {
+            result.record(phase, start, exitCode == 0);
+        }
+    }
+
+    /**
+     * Fresh installations get vendor as a symbolic link to a timestamped tree from the start,
+     * so refreshes can always swap it atomically. Platforms without symbolic links keep a plain directory.
+     */
+    private static void linkVendor(File home) throws IOException, InterruptedException {
+        File vendor = new File(home, VENDOR_DIR);
+        if (vendor.exists() || Util.isSymlink(vendor)) {
+            return;
+        }
+        String treeName = VENDOR_TREE_PREFIX + System.currentTimeMillis();
+        File tree = new File(home, treeName);
+        if (!tree.mkdirs()) {
+            throw new IOException("Unable to create " + tree);
+        }
+        Util.createSymlink(home, treeName, VENDOR_DIR, TaskListener.NULL);
+        if (!Util.isSymlink(vendor)) {
+            Util.deleteRecursive(tree);
+        }
+    }
+
+    /**
+     * Turns a vendor directory installed before vendor became a symbolic link into one, only called
+     * while the node is idle: vendor does not exist between the rename and the creation of the link.
+     */
+    private static void migrateVendor(File home) throws IOException, InterruptedException {
+        File vendor = new File(home, VENDOR_DIR);
+        String treeName = VENDOR_TREE_PREFIX + System.currentTimeMillis();
+        File tree = new File(home, treeName);
+        if (!vendor.renameTo(tree)) {
+            throw new IOException("Unable to move " + vendor);
+        }
+        Util.createSymlink(home, treeName, VENDOR_DIR, TaskListener.NULL);
+        if (!Util.isSymlink(vendor) && !tree.renameTo(vendor)) {
+            // no symbolic links on this platform, vendor stays a plain directory
+            throw new IOException("Unable to move " + tree + " back to " + vendor);
+        }
+    }
+
+    /**
+     * Swaps the vendor tree updated in the staging directory in place of the installation one.
+     * A link to the new tree is created under a temporary name and renamed over vendor, which replaces
+     * the previous link atomically; the previous tree is kept so processes started before the swap can complete.
+     * Without symbolic links the plain vendor directory is replaced, callers make sure the node is idle then.
+     */
+    static void swapVendor(File home, File staging) throws IOException, InterruptedException {
+        String treeName = VENDOR_TREE_PREFIX + System.currentTimeMillis();
+        File tree = new File(home, treeName);
+        if (!new File(staging, VENDOR_DIR).renameTo(tree)) {
+            throw new IOException("Unable to move updated vendor tree to " + tree);
+        }
+
+        File vendor = new File(home, VENDOR_DIR);
+        if (Util.isSymlink(vendor)) {
+            File next = new File(home, VENDOR_NEXT);
+            next.delete();
+            Util.createSymlink(home, treeName, VENDOR_NEXT, TaskListener.NULL);
+            if (!Util.isSymlink(next) || !next.renameTo(vendor)) {
+                next.delete();
+                throw new IOException("Unable to swap " + vendor);
+            }
+        } else {
+            File previous = new File(home, VENDOR_TREE_PREFIX + (System.currentTimeMillis() + 1));
+            if (vendor.exists() && !vendor.renameTo(previous)) {
+                throw new IOException("Unable to move " + vendor);
+            }
+            if (!tree.renameTo(vendor)) {
+                previous.renameTo(vendor);
+                throw new IOException("Unable to swap " + vendor);
+            }
+        }
+
+        File lock = new File(staging, COMPOSER_LOCK);
+        if (lock.exists()) {
+            File target = new File(home, COMPOSER_LOCK);
+            target.delete();
+            lock.renameTo(target);
+        }
+
+        removeOldTrees(home);
+    }
+
+    private static void removeOldTrees(File home) throws IOException, InterruptedException {
+        File[] trees = home.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(VENDOR_TREE_PREFIX) && !name.equals(VENDOR_NEXT);
+            }
+        });
+        if (trees == null) {
+            return;
+        }
+        Arrays.sort(trees, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long t1 = Long.parseLong(o1.getName().substring(VENDOR_TREE_PREFIX.length()));
+                long t2 = Long.parseLong(o2.getName().substring(VENDOR_TREE_PREFIX.length()));
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        // current and previous trees are kept
+        for (int i = 2; i < trees.length; i++) {
+            Util.deleteRecursive(trees[i]);
+        }
+    }
+
+    public static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        boolean installed;
+        boolean refreshed;
+        boolean installerFailed;
+        boolean installerUnavailable;
+        boolean dependenciesInstalled = true;
+        long bytes;
+        final Map<ComposerMetrics.Phase, Long> durations = new EnumMap<ComposerMetrics.Phase, Long>(ComposerMetrics.Phase.class);
+        final List<ComposerMetrics.Phase> failures = new ArrayList<ComposerMetrics.Phase>();
+        final List<ComposerMetrics.SkipReason> skips = new ArrayList<ComposerMetrics.SkipReason>();
+
+        /**
+         * Phases run several times, such as global requires, add up.
+         */
+        void record(ComposerMetrics.Phase phase, long start, boolean success) {
+            Long previous = durations.get(phase);
+            durations.put(phase, (previous == null ? 0 : previous) + System.currentTimeMillis() - start);
+            if (!success) {
+                failures.add(phase);
+            }
+        }
+
+        public boolean isRefreshed() {
+            return refreshed;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.jenkinsci.plugins.phpcomposer;
 
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
 import hudson.model.EnvironmentSpecific;
 import hudson.model.Node;
 import hudson.model.TaskListener;
@@ -10,7 +12,9 @@ import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolInstaller;
 import hudson.tools.ToolProperty;
+import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -22,11 +26,171 @@ import java.util.List;
  */
 public class ComposerInstallation extends ToolInstallation implements NodeSpecific<ComposerInstallation>, EnvironmentSpecific<ComposerInstallation>, Serializable {
 
+    public static final String DEFAULT_CACHE_DIR = "composer-cache";
+    public static final long DEFAULT_CACHE_MAX_SIZE_MB = 1024;
+    public static final String DEFAULT_OPCACHE_DIR = "composer-opcache";
+
+    private String cacheDir;
+    /**
+     * Boxed so configurations saved before the field existed are told apart from 0, see {@link #readResolve()}.
+     */
+    private Long cacheMaxSizeMb = DEFAULT_CACHE_MAX_SIZE_MB;
+    private String phpBinary;
+    private String memoryLimit;
+    private boolean opcache;
+    private String opcacheFileCache;
+    private int processTimeout;
+    private boolean optimizeAutoloader;
+    private boolean classmapAuthoritative;
+    private boolean preferDist;
+
     @DataBoundConstructor
     public ComposerInstallation(String name, String home, List<? extends ToolProperty<?>> properties) {
         super(name, home, properties);
     }
 
+    /**
+     * XStream does not run field initializers, the cache budget defaults here for older configurations.
+     */
+    @Override
+    protected Object readResolve() {
+        if (cacheMaxSizeMb == null) {
+            cacheMaxSizeMb = DEFAULT_CACHE_MAX_SIZE_MB;
+        }
+        return super.readResolve();
+    }
+
+    /**
+     * @return directory shared by all executors of a node for downloaded packages, {@code null} for node default
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    @DataBoundSetter
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = Util.fixEmptyAndTrim(cacheDir);
+    }
+
+    /**
+     * @return size budget of the package cache in megabytes, 0 disables eviction
+     */
+    public long getCacheMaxSizeMb() {
+        return cacheMaxSizeMb;
+    }
+
+    @DataBoundSetter
+    public void setCacheMaxSizeMb(long cacheMaxSizeMb) {
+        this.cacheMaxSizeMb = Math.max(0, cacheMaxSizeMb);
+    }
+
+    /**
+     * @return PHP interpreter composer runs with, {@code null} for php on PATH
+     */
+    public String getPhpBinary() {
+        return phpBinary;
+    }
+
+    @DataBoundSetter
+    public void setPhpBinary(String phpBinary) {
+        this.phpBinary = Util.fixEmptyAndTrim(phpBinary);
+    }
+
+    public String getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    @DataBoundSetter
+    public void setMemoryLimit(String memoryLimit) {
+        this.memoryLimit = Util.fixEmptyAndTrim(memoryLimit);
+    }
+
+    public boolean isOpcache() {
+        return opcache;
+    }
+
+    @DataBoundSetter
+    public void setOpcache(boolean opcache) {
+        this.opcache = opcache;
+    }
+
+    /**
+     * @return persistent opcache directory, {@code null} for node default
+     */
+    public String getOpcacheFileCache() {
+        return opcacheFileCache;
+    }
+
+    @DataBoundSetter
+    public void setOpcacheFileCache(String opcacheFileCache) {
+        this.opcacheFileCache = Util.fixEmptyAndTrim(opcacheFileCache);
+    }
+
+    /**
+     * @return timeout of processes started by composer in seconds, 0 for composer default
+     */
+    public int getProcessTimeout() {
+        return processTimeout;
+    }
+
+    @DataBoundSetter
+    public void setProcessTimeout(int processTimeout) {
+        this.processTimeout = Math.max(0, processTimeout);
+    }
+
+    public boolean isOptimizeAutoloader() {
+        return optimizeAutoloader;
+    }
+
+    @DataBoundSetter
+    public void setOptimizeAutoloader(boolean optimizeAutoloader) {
+        this.optimizeAutoloader = optimizeAutoloader;
+    }
+
+    public boolean isClassmapAuthoritative() {
+        return classmapAuthoritative;
+    }
+
+    @DataBoundSetter
+    public void setClassmapAuthoritative(boolean classmapAuthoritative) {
+        this.classmapAuthoritative = classmapAuthoritative;
+    }
+
+    public boolean isPreferDist() {
+        return preferDist;
+    }
+
+    @DataBoundSetter
+    public void setPreferDist(boolean preferDist) {
+        this.preferDist = preferDist;
+    }
+
+    /**
+     * @param node node the persistent opcache defaults to, {@code null} when already resolved by {@link #forNode}
+     */
+    public PhpProfile getPhpProfile(Node node) {
+        String fileCache = opcacheFileCache;
+        if (fileCache == null && node != null && node.getRootPath() != null) {
+            fileCache = node.getRootPath().child(DEFAULT_OPCACHE_DIR).getRemote();
+        }
+        return new PhpProfile(phpBinary, memoryLimit, opcache ? fileCache : null, processTimeout,
+                optimizeAutoloader, classmapAuthoritative, preferDist);
+    }
+
+    public long getCacheMaxSizeBytes() {
+        return cacheMaxSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * @return package cache of this installation on the given node, {@code null} if node is offline
+     */
+    public FilePath getCache(Node node) {
+        if (cacheDir == null || node == null || node.getChannel() == null) {
+            return null;
+        }
+        return new FilePath(node.getChannel(), cacheDir);
+    }
+
     @Override
     public void buildEnvVars(EnvVars env) {
         String home = getHome();
@@ -37,16 +201,57 @@ public class ComposerInstallation extends ToolInstallation implements NodeSpecif
         env.override("PATH+COMPOSER_HOME", home);
         env.override("PATH+COMPOSER_GLOBAL_BIN", home + "/vendor/bin");
         env.override("COMPOSER_HOME", home);
+
+        PhpProfile profile = getPhpProfile(null);
+        if (profile.hasIniSettings()) {
+            // wrapper running composer with the profile comes first
+            env.override("PATH+COMPOSER_PROFILE", home + "/" + PhpProfile.BIN_DIR);
+        }
+        profile.buildEnvVars(env);
+
+        if (cacheDir != null) {
+            env.override("COMPOSER_CACHE_DIR", cacheDir);
+            if (cacheMaxSizeMb > 0) {
+                // composer own garbage collector honours the same budget
+                env.override("COMPOSER_CACHE_FILES_MAXSIZE", cacheMaxSizeMb + "MiB");
+            }
+        }
     }
 
     @Override
     public ComposerInstallation forEnvironment(EnvVars environment) {
-        return new ComposerInstallation(getName(), environment.expand(getHome()),getProperties());
+        ComposerInstallation installation = copy(environment.expand(getHome()), cacheDir == null ? null : environment.expand(cacheDir));
+        installation.phpBinary = phpBinary == null ? null : environment.expand(phpBinary);
+        installation.opcacheFileCache = opcacheFileCache == null ? null : environment.expand(opcacheFileCache);
+        return installation;
     }
 
     @Override
     public ComposerInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
-        return new ComposerInstallation(getName(), translateFor(node, log),getProperties());
+        String nodeCacheDir = cacheDir;
+        if (nodeCacheDir == null && node.getRootPath() != null) {
+            nodeCacheDir = node.getRootPath().child(DEFAULT_CACHE_DIR).getRemote();
+        }
+        ComposerInstallation installation = copy(translateFor(node, log), nodeCacheDir);
+        if (opcacheFileCache == null && node.getRootPath() != null) {
+            installation.opcacheFileCache = node.getRootPath().child(DEFAULT_OPCACHE_DIR).getRemote();
+        }
+        return installation;
+    }
+
+    private ComposerInstallation copy(String home, String cacheDir) {
+        ComposerInstallation installation = new ComposerInstallation(getName(), home, getProperties());
+        installation.cacheDir = cacheDir;
+        installation.cacheMaxSizeMb = cacheMaxSizeMb;
+        installation.phpBinary = phpBinary;
+        installation.memoryLimit = memoryLimit;
+        installation.opcache = opcache;
+        installation.opcacheFileCache = opcacheFileCache;
+        installation.processTimeout = processTimeout;
+        installation.optimizeAutoloader = optimizeAutoloader;
+        installation.classmapAuthoritative = classmapAuthoritative;
+        installation.preferDist = preferDist;
+        return installation;
     }
 
     @Extension
@@ -64,7 +269,13 @@ public class ComposerInstallation extends ToolInstallation implements NodeSpecif
 
         @Override
         public void setInstallations(ComposerInstallation... installations) {
-            ComposerPlugin.instance().setInstallations(installations);
+            ComposerPlugin plugin = ComposerPlugin.instance();
+            boolean changed = !Jenkins.XSTREAM2.toXML(plugin.getInstallations()).equals(Jenkins.XSTREAM2.toXML(installations));
+            plugin.setInstallations(installations);
+            if (changed) {
+                // nodes get the new configuration installed before the next build needs it
+                ComposerPrewarm.start(null);
+            }
         }
 
         @Override
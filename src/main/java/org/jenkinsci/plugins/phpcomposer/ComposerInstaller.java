@@ -1,36 +1,31 @@
 package org.jenkinsci.plugins.phpcomposer;
 
+import com.google.common.base.Throwables;
 import hudson.Extension;
 import hudson.FilePath;
-import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.TaskListener;
+import hudson.remoting.Channel;
 import hudson.remoting.VirtualChannel;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolInstaller;
 import hudson.tools.ToolInstallerDescriptor;
-import hudson.util.ArgumentListBuilder;
-import hudson.util.IOUtils;
-import jenkins.MasterToSlaveFileCallable;
-import org.apache.commons.io.input.CountingInputStream;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
-
-import javax.annotation.CheckForNull;
-import javax.annotation.Nonnull;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
-import static hudson.FilePath.TarCompression.GZIP;
-
 /**
  * Created by unilama on 23.07.15.
  */
@@ -48,9 +43,14 @@ public class ComposerInstaller extends ToolInstaller {
     }
 
     private final long composerDepsRefreshHours;
+    private boolean useControllerMirror;
+    private String version;
     public static final String COMPOSER_INSTALL_URL = "https://getcomposer.org/installer";
+    public static final String COMPOSER_INSTALLER_SIGNATURE_URL = "https://composer.github.io/installer.sig";
     public static final String COMPOSER_DEPENDENCIES_CHECKSUM = ".composerGlobalDependencies";
-    private static final String COMPOSER_DEPENDENCIES_LAST_UPDATE = ".composerLastUpdate";
+    public static final String COMPOSER_DEPENDENCIES_STATE = ".composerGlobalDependencies.properties";
+
+    private static final ConcurrentMap<String, FutureTask<FilePath>> INSTALLATIONS = new ConcurrentHashMap<String, FutureTask<FilePath>>();
 
     @DataBoundConstructor
     public ComposerInstaller(String id, String composerDependencies, long composerDepsRefreshHours) {
@@ -59,226 +59,208 @@ public class ComposerInstaller extends ToolInstaller {
         this.composerDepsRefreshHours = composerDepsRefreshHours;
     }
 
-    @Override
-    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
-        FilePath filePath = preferredLocation(tool, node);
-
-        //download installation script
-        if( installIfNecessaryFrom(new URL(COMPOSER_INSTALL_URL), log, "Downloading PHP composer installation script...", filePath) ) {
-
-            //execute installation script
-            ArgumentListBuilder exeInstall = new ArgumentListBuilder();
-            exeInstall.add("php");
-            exeInstall.add(filePath.child("installer"));
-            exeInstall.add("--");
-            exeInstall.addKeyValuePair("--", "install-dir", filePath.getRemote(), false);
-            exeInstall.addKeyValuePair("--", "filename", COMPOSER_EXE_NAME, false);
-
-            // run and cleanup
-            hudson.Launcher launcher = node.createLauncher(log);
-            int exitCode = launcher.launch().cmds(exeInstall).stdout(log).join();
-
-            if (exitCode != 0) {
-                log.error(Messages.ComposerInstaller_InstallationFailed());
-                return filePath;
-            }
-            log.getLogger().println(Messages.ComposerInstaller_InstallationCompleted());
-        }else {
-            //TODO move to messages
-            log.getLogger().println("Installation skipped...");
-        }
-
+    public boolean isUseControllerMirror() {
+        return useControllerMirror;
+    }
 
-        if( requireDependencies(filePath, node, log)){
-            log.getLogger().println(Messages.ComposerInstaller_GlobalDependenciesInstalled());
-        }else{
-            log.error(Messages.ComposerInstaller_GlobalDependenciesInstallationProblem());
-        }
+    @DataBoundSetter
+    public void setUseControllerMirror(boolean useControllerMirror) {
+        this.useControllerMirror = useControllerMirror;
+    }
 
-        if( isComposerUpdateNeeded(filePath) ) {
-            if( composerSelfUpdate(filePath, node, log) || composerUpdateDeps(filePath, node, log) ) {
-                filePath.child(COMPOSER_DEPENDENCIES_LAST_UPDATE).write(Long.toString(System.currentTimeMillis()), "UTF-8");
-            }
-        }
+    /**
+     * @return composer release the installation is pinned to, null to follow the latest release
+     */
+    public String getVersion() {
+        return version;
+    }
 
-        return filePath;
+    @DataBoundSetter
+    public void setVersion(String version) {
+        this.version = Util.fixEmptyAndTrim(version);
     }
 
     /**
-     * Copy paste from FilePath.java since we don't need unarchive installer
-     * @param archive
-     * @param listener
-     * @param message
-     * @return
-     * @throws IOException
-     * @throws InterruptedException
+     * Executors starting builds at the same time on a node share a single installation:
+     * the first one installs, the others wait for its result. Waiters take over when the build installing was aborted.
      */
-    private boolean installIfNecessaryFrom(@Nonnull URL archive, @CheckForNull TaskListener listener, @Nonnull String message, @Nonnull FilePath baseDir) throws IOException, InterruptedException {
-        try {
-            FilePath timestamp = baseDir.child(".timestamp");
-            long lastModified = timestamp.lastModified();
-            URLConnection con;
-            try {
-                con = ProxyConfiguration.open(archive);
-                if (lastModified != 0) {
-                    con.setIfModifiedSince(lastModified);
-                }
-                con.connect();
-            } catch (IOException x) {
-                if (baseDir.exists()) {
-                    // Cannot connect now, so assume whatever was last unpacked is still OK.
-                    if (listener != null) {
-                        listener.getLogger().println("Skipping installation of " + archive + " to " + baseDir.getRemote() + ": " + x);
+    @Override
+    public FilePath performInstallation(final ToolInstallation tool, final Node node, final TaskListener log) throws IOException, InterruptedException {
+        String key = ComposerInstallLock.key(node, tool.getName());
+        while( true ) {
+            FutureTask<FilePath> installation = new FutureTask<FilePath>(new Callable<FilePath>() {
+                @Override
+                public FilePath call() throws Exception {
+                    FilePath filePath = preferredLocation(tool, node);
+                    ComposerInstallLock lock = ComposerInstallLock.of(node, tool.getName(), filePath);
+                    lock.lock();
+                    try {
+                        return install(tool, filePath, lock, node, log);
+                    } finally {
+                        lock.unlock();
                     }
-                    return false;
-                } else {
-                    throw x;
                 }
-            }
-
-            if (lastModified != 0 && con instanceof HttpURLConnection) {
-                HttpURLConnection httpCon = (HttpURLConnection) con;
-                int responseCode = httpCon.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
-                    return false;
-                } else if (responseCode != HttpURLConnection.HTTP_OK) {
-                    listener.getLogger().println("Skipping installation of " + archive + " to " + baseDir.getRemote() + " due to server error: " + responseCode + " " + httpCon.getResponseMessage());
-                    return false;
-                }
-            }
+            });
 
-            long sourceTimestamp = con.getLastModified();
-
-            if(baseDir.exists()) {
-                if (lastModified != 0 && sourceTimestamp == lastModified) {
-                    listener.getLogger().println("Skipping installation of " + archive + " to " + baseDir.getRemote() + " due to file is up to date "+sourceTimestamp+" "+lastModified);
-                    return false;   // already up to date
-                }
-                baseDir.deleteContents();
-            } else {
-                baseDir.mkdirs();
-            }
-
-            if(listener!=null)
-                listener.getLogger().println(message);
-
-            if (baseDir.isRemote()) {
-                // First try to download from the slave machine.
+            FutureTask<FilePath> running = INSTALLATIONS.putIfAbsent(key, installation);
+            if( running == null ) {
                 try {
-                    baseDir.act(new JustCopy( getInstallerFile(baseDir).toURI().toURL()));
-                    timestamp.touch(sourceTimestamp);
-                    return true;
-                } catch (IOException x) {
-                    if (listener != null) {
-                        x.printStackTrace(listener.error("Failed to download " + archive + " from slave; will retry from master"));
-                    }
+                    installation.run();
+                    return getInstallation(installation);
+                } finally {
+                    INSTALLATIONS.remove(key, installation);
                 }
             }
-
-            // for HTTP downloads, enable automatic retry for added resilience
-            InputStream in = archive.getProtocol().startsWith("http") ? ProxyConfiguration.getInputStream(archive) : con.getInputStream();
-            CountingInputStream cis = new CountingInputStream(in);
-            IOUtils.copy(cis, getInstallerFile(baseDir));
-            timestamp.touch(sourceTimestamp);
-            return true;
-        } catch (IOException e) {
-            throw new IOException("Failed to install "+archive+" to "+baseDir.getRemote(),e);
+            log.getLogger().println(Messages.ComposerInstaller_WaitingForInstallation());
+            try {
+                return getInstallation(running);
+            } catch (WinnerInterruptedException e) {
+                // the interruption was meant for the build installing, not for this one
+                INSTALLATIONS.remove(key, running);
+            }
         }
     }
 
-    protected File getInstallerFile(FilePath baseDir){
-        return new File(baseDir.child("installer").getRemote());
-    }
-
-    // again copy paste form Unpack this reads from arbitrary URL
-    private final class JustCopy extends MasterToSlaveFileCallable<Void> {
-        private final URL archive;
-        JustCopy(URL archive) {
-            this.archive = archive;
-        }
-        @Override public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
-            InputStream in = archive.openStream();
-            try {
-                CountingInputStream cis = new CountingInputStream(in);
-                IOUtils.copy(cis, dir);
-            } finally {
-                in.close();
+    private static FilePath getInstallation(FutureTask<FilePath> installation) throws IOException, InterruptedException {
+        try {
+            return installation.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            }
+            if( cause instanceof InterruptedException ) {
+                throw new WinnerInterruptedException((InterruptedException) cause);
             }
-            return null;
+            Throwables.propagateIfPossible(cause);
+            throw new IOException(cause);
         }
     }
 
-    private boolean isComposerUpdateNeeded(FilePath filePath) throws IOException, InterruptedException {
-        FilePath lastUpdateFile = filePath.child(COMPOSER_DEPENDENCIES_LAST_UPDATE);
-        return !lastUpdateFile.exists() || Long.getLong(lastUpdateFile.readToString())+ TimeUnit.HOURS.toMillis(getComposerDepsRefreshHours()) > System.currentTimeMillis();
+    /**
+     * The thread running a shared installation was interrupted, as opposed to the thread waiting for it.
+     */
+    private static final class WinnerInterruptedException extends InterruptedException {
+        WinnerInterruptedException(InterruptedException cause) {
+            super(cause.getMessage());
+            initCause(cause);
+        }
     }
 
-    private boolean composerUpdateDeps(FilePath filePath, Node node, TaskListener log) throws IOException, InterruptedException {
-        ArgumentListBuilder install = new ArgumentListBuilder();
-        install.add("php");
-        install.add(filePath.child(COMPOSER_EXE_NAME));
-        install.add("global");
-        install.add("update");
+    /**
+     * Installation runs on the node in a single remoting call, see {@link ComposerInstallPlan}.
+     */
+    private FilePath install(ToolInstallation tool, FilePath filePath, ComposerInstallLock lock, Node node, TaskListener log) throws IOException, InterruptedException {
+        ComposerInstallPlan.Result result = run(tool, filePath, ComposerInstallPlan.install(lock, getComposerDependencies(), log), isUseControllerMirror(), node, log);
+        if( result.installerUnavailable ) {
+            // the node cannot reach getcomposer.org, which the installer script itself downloads composer from:
+            // composer is streamed from the controller mirror instead
+            result = run(tool, filePath, ComposerInstallPlan.install(lock, getComposerDependencies(), log), true, node, log);
+        }
+        if( result.installerFailed ) {
+            return filePath;
+        }
 
-        hudson.Launcher launcher = node.createLauncher(log);
-        return launcher.launch().cmds(install).stdout(log).join() == 0;
+        if( result.dependenciesInstalled ){
+            log.getLogger().println(Messages.ComposerInstaller_GlobalDependenciesInstalled());
+        }else{
+            log.error(Messages.ComposerInstaller_GlobalDependenciesInstallationProblem());
+        }
+        return filePath;
     }
 
-    private boolean composerSelfUpdate(FilePath filePath, Node node, TaskListener log) throws IOException, InterruptedException {
-        ArgumentListBuilder install = new ArgumentListBuilder();
-        install.add("php");
-        install.add(filePath.child(COMPOSER_EXE_NAME));
-        install.add("self-update");
+    /**
+     * Refreshes composer and global dependencies of an existing installation when the refresh interval elapsed.
+     * Dependencies are updated in a staging directory whose vendor tree is then swapped in,
+     * so running builds are never exposed to a half updated tree.
+     * @return true if the installation was refreshed
+     */
+    public boolean refresh(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+        FilePath filePath = preferredLocation(tool, node);
 
-        hudson.Launcher launcher = node.createLauncher(log);
-        return launcher.launch().cmds(install).stdout(log).join() == 0;
+        // a build installing right now is never delayed, refresh waits for the next run
+        ComposerInstallLock lock = ComposerInstallLock.of(node, tool.getName(), filePath);
+        if( !lock.tryLock() ) {
+            return false;
+        }
+        try {
+            long interval = TimeUnit.HOURS.toMillis(getComposerDepsRefreshHours());
+            // without symbolic links vendor can only be replaced while no build may be using it
+            Computer computer = node.toComputer();
+            boolean idle = computer != null && computer.isIdle();
+            return run(tool, filePath, ComposerInstallPlan.refresh(lock, interval, idle, log), isUseControllerMirror(), node, log).isRefreshed();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private boolean requireDependencies(FilePath filePath, Node node, TaskListener log) throws IOException, InterruptedException {
-
-        if( getComposerDependencies() == null || getComposerDependencies().isEmpty() || isDependencyListUpToDate(filePath) ){
-            log.getLogger().println("Skipping dependencies installation...");
-            return true;
+    /**
+     * Runs the plan on the node, composer comes from the controller mirror or from getcomposer.org
+     * and is shared with other installations of the node through the node {@link ComposerStore}.
+     * Metrics measured on the node are recorded once the plan completes.
+     */
+    private ComposerInstallPlan.Result run(ToolInstallation tool, FilePath filePath, ComposerInstallPlan plan, boolean mirrored, Node node, TaskListener log) throws IOException, InterruptedException {
+        if( mirrored ) {
+            ComposerMirror mirror = ComposerMirror.get();
+            ComposerMirror.Release release = version == null ? mirror.latest(log) : mirror.release(version, log);
+            ComposerMirror.PharSource source = release.getSource();
+            VirtualChannel channel = filePath.getChannel();
+            if( channel instanceof Channel ) {
+                // the node calls back for the phar only when it does not have this release yet
+                source = ((Channel) channel).export(ComposerMirror.PharSource.class, source);
+            }
+            plan.withPhar(source, release.getSha256());
+        }else {
+            // overridable to point nodes at an internal copy of the installer
+            plan.withInstallerUrl(System.getProperty(ComposerInstaller.class.getName() + ".installUrl", COMPOSER_INSTALL_URL),
+                    System.getProperty(ComposerInstaller.class.getName() + ".signatureUrl", COMPOSER_INSTALLER_SIGNATURE_URL));
         }
-
-        ArgumentListBuilder install = new ArgumentListBuilder();
-        install.add("php");
-        install.add(filePath.child(COMPOSER_EXE_NAME));
-        install.add("global");
-        install.add("require");
-
-        for(String packageName : getComposerDependencies().split("\\s")){
-            install.add(packageName);
+        plan.withVersion(version);
+        if( tool instanceof ComposerInstallation ) {
+            plan.withProfile(((ComposerInstallation) tool).getPhpProfile(node));
         }
-
-
-        hudson.Launcher launcher = node.createLauncher(log);
-        boolean installResult = launcher.launch().cmds(install).stdout(log).join() == 0;
-        //in case of successfully added required dependencies we store checksum
-        if( installResult ) {
-            saveDependenciesList(filePath);
+        FilePath root = node.getRootPath();
+        if( root != null ) {
+            plan.withStore(root.child(ComposerStore.STORE_DIR).getRemote());
         }
-        return installResult;
-    }
 
-    private void saveDependenciesList(FilePath filePath) throws IOException, InterruptedException {
-        filePath.child(COMPOSER_DEPENDENCIES_CHECKSUM).write(getDependenciesChecksum(), "UTF-8");
-    }
+        ComposerInstallPlan.Result result = filePath.act(plan);
 
-    private boolean isDependencyListUpToDate(FilePath filePath) throws IOException, InterruptedException {
-        FilePath checksumFile = filePath.child(COMPOSER_DEPENDENCIES_CHECKSUM);
-        return checksumFile.exists() && checksumFile.readToString().equals(getDependenciesChecksum());
+        ComposerMetrics metrics = ComposerMetrics.get();
+        for(Map.Entry<ComposerMetrics.Phase, Long> duration : result.durations.entrySet()){
+            metrics.recordDuration(node, duration.getKey(), duration.getValue(), !result.failures.contains(duration.getKey()));
+        }
+        for(ComposerMetrics.SkipReason skip : result.skips){
+            metrics.recordSkip(node, skip);
+        }
+        if( result.bytes > 0 ) {
+            metrics.recordBytes(node, result.bytes);
+        }
+        return result;
     }
 
-    private String getDependenciesChecksum() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            return new String( md.digest(this.composerDependencies.getBytes("UTF-8")) );
-        } catch (NoSuchAlgorithmException e) {
-            return this.composerDependencies;
-        } catch (UnsupportedEncodingException e) {
-            return this.composerDependencies;
+    /**
+     * @return package name to version constraint, empty constraint when none is given
+     */
+    static Map<String, String> parseDependencies(String dependencies) {
+        Map<String, String> parsed = new TreeMap<String, String>();
+        if( dependencies == null ){
+            return parsed;
+        }
+        for(String dependency : dependencies.trim().split("\\s+")){
+            if( dependency.isEmpty() ){
+                continue;
+            }
+            int separator = dependency.indexOf(':');
+            if( separator < 0 ){
+                separator = dependency.indexOf('=');
+            }
+            String packageName = separator < 0 ? dependency : dependency.substring(0, separator);
+            String constraint = separator < 0 ? "" : dependency.substring(separator + 1);
+            // package names are case insensitive for composer
+            parsed.put(packageName.toLowerCase(Locale.ENGLISH), constraint);
         }
+        return parsed;
     }
 
     @Override
@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Console filter collapsing composer output: progress redraws are dropped and per-package lines
+ * are replaced by a summary line counting them per action. Collapsed lines are kept in a bounded
+ * ring buffer so they can still be written out when the build fails.
+ * Only lines of a composer section are collapsed, from the header composer prints before package operations
+ * to the autoload generation following them or the next shell command. Output of other tools, such as PHPUnit
+ * progress lines or redrawn lines, goes through unchanged.
+ */
+public final class ComposerLogFilter extends LineTransformationOutputStream {
+
+    public static final int DEFAULT_BUFFER_LINES = 500;
+
+    private static final Pattern ANSI = Pattern.compile("\u001B\\[[;\\d]*[A-Za-z]");
+    private static final Pattern SECTION_START = Pattern.compile("^(Loading composer repositories with package information"
+            + "|Installing dependencies.* from lock file.*|Updating dependencies.*|Package operations: .*|Lock file operations: .*)$");
+    private static final Pattern SECTION_END = Pattern.compile("^(Generating (optimized )?autoload files.*|Nothing to install, update or remove"
+            + "|Installation failed.*|Your requirements could not be resolved.*|\\+ .*)$");
+    // composer 2 progress bar and composer 1 download percentages
+    private static final Pattern PROGRESS = Pattern.compile("^\\s*(\\d+/\\d+ \\[[=>\\-\\s]*\\]\\s*\\d+%.*"
+            + "|(- \\S.*: )?(Downloading|Loading from cache)(:\\s*\\d+%| \\(\\s*(\\d+%|connecting\\.\\.\\.)\\))?\\s*)$");
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*- (Installing|Updating|Upgrading|Downgrading|Removing|Locking|Downloading|Syncing) \\S+.*$");
+
+    private final OutputStream out;
+    private final Charset charset;
+    private final int bufferLines;
+    private final Deque<String> suppressed = new ArrayDeque<String>();
+    private final Map<String, Integer> actions = new TreeMap<String, Integer>();
+    private int collapsed;
+    private long groupStart;
+    private boolean section;
+
+    public ComposerLogFilter(OutputStream out, Charset charset, int bufferLines) {
+        this.out = out;
+        this.charset = charset;
+        this.bufferLines = Math.max(0, bufferLines);
+    }
+
+    @Override
+    protected synchronized void eol(byte[] b, int len) throws IOException {
+        String line = new String(b, 0, len, charset);
+        String trimmed = trimEOL(ANSI.matcher(line).replaceAll(""));
+        // redrawn lines only matter for their final state
+        int redraw = trimmed.lastIndexOf('\r');
+        if (redraw >= 0) {
+            trimmed = trimmed.substring(redraw + 1);
+        }
+
+        if (SECTION_START.matcher(trimmed).matches()) {
+            section = true;
+        } else if (section) {
+            Matcher pkg = PACKAGE.matcher(trimmed);
+            if (pkg.matches()) {
+                count(pkg.group(1));
+                keep(trimmed);
+                return;
+            }
+            if (redraw >= 0 || PROGRESS.matcher(trimmed).matches()) {
+                count(null);
+                keep(trimmed);
+                return;
+            }
+            if (SECTION_END.matcher(trimmed).matches()) {
+                section = false;
+            }
+        }
+
+        summarize();
+        out.write(b, 0, len);
+    }
+
+    private void count(String action) {
+        if (collapsed == 0) {
+            groupStart = System.currentTimeMillis();
+        }
+        collapsed++;
+        if (action != null) {
+            Integer count = actions.get(action);
+            actions.put(action, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void keep(String line) {
+        if (bufferLines == 0) {
+            return;
+        }
+        if (suppressed.size() == bufferLines) {
+            suppressed.removeFirst();
+        }
+        suppressed.addLast(line);
+    }
+
+    /**
+     * Writes the summary of collapsed lines since the last one, if any.
+     */
+    private void summarize() throws IOException {
+        if (collapsed == 0) {
+            return;
+        }
+        StringBuilder counts = new StringBuilder();
+        for (Map.Entry<String, Integer> action : actions.entrySet()) {
+            if (counts.length() > 0) {
+                counts.append(", ");
+            }
+            counts.append(action.getKey()).append(' ').append(action.getValue());
+        }
+        String summary = Messages.ComposerLogFilter_Summary(counts.length() == 0 ? "-" : counts, collapsed,
+                System.currentTimeMillis() - groupStart);
+        out.write((summary + "\n").getBytes(charset));
+        collapsed = 0;
+        actions.clear();
+    }
+
+    /**
+     * Writes out the collapsed lines still held by the ring buffer, meant for failed builds.
+     */
+    public synchronized void dumpSuppressed() throws IOException {
+        summarize();
+        if (suppressed.isEmpty()) {
+            return;
+        }
+        out.write((Messages.ComposerLogFilter_Dump(suppressed.size()) + "\n").getBytes(charset));
+        for (String line : suppressed) {
+            out.write((line + "\n").getBytes(charset));
+        }
+        suppressed.clear();
+        out.flush();
+    }
+
+    /**
+     * Writes the summary of the lines collapsed last, the underlying stream stays open.
+     */
+    public synchronized void finish() throws IOException {
+        forceEol();
+        summarize();
+        out.flush();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        summarize();
+        out.close();
+    }
+}
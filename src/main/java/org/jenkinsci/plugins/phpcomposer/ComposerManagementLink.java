@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.util.List;
+
+/**
+ * Manage Jenkins page reporting where composer tool installation time goes, also available from /composer/api.
+ * Installations can be pre-warmed on online nodes from here, or by POSTing to /composer/prewarm.
+ */
+@Extension
+@ExportedBean
+public class ComposerManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "composer";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.ComposerManagementLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.ComposerManagementLink_Description();
+    }
+
+    public Api getApi() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return new Api(this);
+    }
+
+    @Exported
+    public List<ComposerMetrics.NodeMetrics> getNodes() {
+        return ComposerMetrics.get().getNodes();
+    }
+
+    @Exported
+    public long getCacheHits() {
+        return ComposerCache.getHits();
+    }
+
+    @Exported
+    public long getCacheMisses() {
+        return ComposerCache.getMisses();
+    }
+
+    @Exported
+    public long getCacheBytesSaved() {
+        return ComposerCache.getBytesSaved();
+    }
+
+    @Exported
+    public long getCacheBytesEvicted() {
+        return ComposerCache.getBytesEvicted();
+    }
+
+    @Exported
+    public long getAvoidedResolutions() {
+        return ComposerBuildContext.getTotalAvoidedResolutions();
+    }
+
+    @Exported
+    public ComposerPrewarm getPrewarm() {
+        return ComposerPrewarm.getLast();
+    }
+
+    @RequirePOST
+    public HttpResponse doPrewarm(@QueryParameter String label) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        ComposerPrewarm.start(label);
+        return HttpResponses.redirectToDot();
+    }
+}
@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.model.Node;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Durations, downloaded bytes, skips and failures of composer tool installation, per node and per phase.
+ */
+public final class ComposerMetrics {
+
+    public enum Phase {
+        DOWNLOAD, INSTALLER, MIRROR_TRANSFER, GLOBAL_REQUIRE, GLOBAL_REMOVE, SELF_UPDATE, GLOBAL_UPDATE
+    }
+
+    public enum SkipReason {
+        NOT_MODIFIED, UP_TO_DATE, OFFLINE, SERVER_ERROR, NODE_BUSY
+    }
+
+    private static final ComposerMetrics INSTANCE = new ComposerMetrics();
+
+    private final ConcurrentMap<String, NodeMetrics> nodes = new ConcurrentHashMap<String, NodeMetrics>();
+
+    private ComposerMetrics() {
+    }
+
+    public static ComposerMetrics get() {
+        return INSTANCE;
+    }
+
+    public void record(Node node, Phase phase, long startMillis, boolean success) {
+        recordDuration(node, phase, System.currentTimeMillis() - startMillis, success);
+    }
+
+    public void recordDuration(Node node, Phase phase, long durationMillis, boolean success) {
+        forNode(node).record(phase, durationMillis, success);
+    }
+
+    public void recordBytes(Node node, long bytes) {
+        forNode(node).recordBytes(bytes);
+    }
+
+    public void recordSkip(Node node, SkipReason reason) {
+        forNode(node).recordSkip(reason);
+    }
+
+    public List<NodeMetrics> getNodes() {
+        return new ArrayList<NodeMetrics>(nodes.values());
+    }
+
+    private NodeMetrics forNode(Node node) {
+        String name = node.getDisplayName();
+        NodeMetrics metrics = nodes.get(name);
+        if (metrics == null) {
+            nodes.putIfAbsent(name, new NodeMetrics(name));
+            metrics = nodes.get(name);
+        }
+        return metrics;
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class NodeMetrics {
+        private final String name;
+        private final Map<Phase, PhaseMetrics> phases = new EnumMap<Phase, PhaseMetrics>(Phase.class);
+        private final Map<SkipReason, Long> skips = new EnumMap<SkipReason, Long>(SkipReason.class);
+        private long bytesDownloaded;
+
+        NodeMetrics(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(Phase phase, long durationMillis, boolean success) {
+            PhaseMetrics metrics = phases.get(phase);
+            if (metrics == null) {
+                metrics = new PhaseMetrics(phase);
+                phases.put(phase, metrics);
+            }
+            metrics.record(durationMillis, success);
+        }
+
+        synchronized void recordBytes(long bytes) {
+            bytesDownloaded += bytes;
+        }
+
+        synchronized void recordSkip(SkipReason reason) {
+            Long count = skips.get(reason);
+            skips.put(reason, count == null ? 1 : count + 1);
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public synchronized List<PhaseMetrics> getPhases() {
+            List<PhaseMetrics> copy = new ArrayList<PhaseMetrics>();
+            for (PhaseMetrics metrics : phases.values()) {
+                copy.add(metrics.copy());
+            }
+            return copy;
+        }
+
+        @Exported
+        public synchronized Map<String, Long> getSkips() {
+            Map<String, Long> copy = new TreeMap<String, Long>();
+            for (Map.Entry<SkipReason, Long> skip : skips.entrySet()) {
+                copy.put(skip.getKey().name(), skip.getValue());
+            }
+            return copy;
+        }
+
+        @Exported
+        public synchronized long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class PhaseMetrics {
+        private final Phase phase;
+        private long count;
+        private long failures;
+        private long totalMillis;
+        private long maxMillis;
+
+        PhaseMetrics(Phase phase) {
+            this.phase = phase;
+        }
+
+        void record(long durationMillis, boolean success) {
+            count++;
+            if (!success) {
+                failures++;
+            }
+            totalMillis += durationMillis;
+            maxMillis = Math.max(maxMillis, durationMillis);
+        }
+
+        PhaseMetrics copy() {
+            PhaseMetrics copy = new PhaseMetrics(phase);
+            copy.count = count;
+            copy.failures = failures;
+            copy.totalMillis = totalMillis;
+            copy.maxMillis = maxMillis;
+            return copy;
+        }
+
+        @Exported
+        public String getPhase() {
+            return phase.name();
+        }
+
+        @Exported
+        public long getCount() {
+            return count;
+        }
+
+        @Exported
+        public long getFailures() {
+            return failures;
+        }
+
+        @Exported
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        @Exported
+        public long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        @Exported
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteInputStream;
+import hudson.util.IOUtils;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller side copy of composer.phar releases. Releases are downloaded once from getcomposer.org,
+ * verified against their published SHA-256 checksum and streamed to agents which therefore never
+ * need to reach the internet to install composer.
+ */
+public class ComposerMirror {
+
+    public static final String DOWNLOAD_URL = "https://getcomposer.org";
+    public static final String MIRROR_DIR = "composer-mirror";
+
+    private static final String PHAR = "composer.phar";
+    private static final String CHECKSUM = PHAR + ".sha256";
+    private static final long LATEST_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private static ComposerMirror instance;
+
+    private final File root;
+    private final String downloadUrl;
+    private Release latest;
+    private long latestCheckedAt;
+
+    public ComposerMirror(File root, String downloadUrl) {
+        this.root = root;
+        this.downloadUrl = downloadUrl;
+    }
+
+    public static synchronized ComposerMirror get() {
+        if (instance == null) {
+            String downloadUrl = System.getProperty(ComposerMirror.class.getName() + ".downloadUrl", DOWNLOAD_URL);
+            instance = new ComposerMirror(new File(Jenkins.getInstance().getRootDir(), MIRROR_DIR), downloadUrl);
+        }
+        return instance;
+    }
+
+    /**
+     * @return latest stable release, checked against getcomposer.org at most once an hour;
+     * the newest mirrored release is used when getcomposer.org cannot be reached
+     */
+    public synchronized Release latest(TaskListener log) throws IOException {
+        if (latest != null && latestCheckedAt + LATEST_CHECK_INTERVAL > System.currentTimeMillis()) {
+            return latest;
+        }
+        try {
+            JSONObject versions = JSONObject.fromObject(read(new URL(downloadUrl + "/versions")));
+            JSONArray stable = versions.getJSONArray("stable");
+            latest = release(stable.getJSONObject(0).getString("version"), log);
+        } catch (IOException e) {
+            Release newest = newestMirrored();
+            if (newest == null) {
+                throw e;
+            }
+            log.getLogger().println(Messages.ComposerMirror_UsingMirrored(newest.getVersion(), e));
+            latest = newest;
+        }
+        latestCheckedAt = System.currentTimeMillis();
+        return latest;
+    }
+
+    /**
+     * @return given release, downloaded and verified on first use
+     */
+    public synchronized Release release(String version, TaskListener log) throws IOException {
+        File dir = new File(root, version);
+        File phar = new File(dir, PHAR);
+        File checksum = new File(dir, CHECKSUM);
+        if (phar.exists() && checksum.exists()) {
+            return new Release(version, read(checksum.toURI().toURL()).trim(), phar);
+        }
+
+        String base = downloadUrl + "/download/" + version + "/" + PHAR;
+        String expected = read(new URL(base + ".sha256sum")).trim().split("\\s+")[0];
+
+        log.getLogger().println(Messages.ComposerMirror_Downloading(version));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create composer mirror directory " + dir);
+        }
+        // an interrupted download is resumed by the next call
+        new ResumableDownload(new URL(base), phar).viaProxy().verify("SHA-256", expected).fetch(false);
+        OutputStream out = new FileOutputStream(checksum);
+        try {
+            out.write(expected.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return new Release(version, expected, phar);
+    }
+
+    private Release newestMirrored() throws IOException {
+        File[] dirs = root.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File dir) {
+                return new File(dir, CHECKSUM).exists();
+            }
+        });
+        if (dirs == null || dirs.length == 0) {
+            return null;
+        }
+        File newest = dirs[0];
+        for (File dir : dirs) {
+            if (dir.lastModified() > newest.lastModified()) {
+                newest = dir;
+            }
+        }
+        return release(newest.getName(), TaskListener.NULL);
+    }
+
+    private static String read(URL url) throws IOException {
+        InputStream in = url.getProtocol().startsWith("http") ? ProxyConfiguration.getInputStream(url) : url.openStream();
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static String markerName(String exeName) {
+        return "." + exeName + ".sha256";
+    }
+
+    /**
+     * Phar of a release opened on demand, exported to agents so the bytes only cross the channel when asked for.
+     */
+    public interface PharSource {
+        InputStream open() throws IOException;
+    }
+
+    public static final class Release {
+        private final String version;
+        private final String sha256;
+        private final File phar;
+
+        Release(String version, String sha256, File phar) {
+            this.version = version;
+            this.sha256 = sha256;
+            this.phar = phar;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public File getPhar() {
+            return phar;
+        }
+
+        /**
+         * @return phar of the release, pushed to the reader up front once opened instead of being pulled chunk by chunk
+         */
+        public PharSource getSource() {
+            final File file = phar;
+            return new PharSource() {
+                @Override
+                public InputStream open() throws IOException {
+                    return new RemoteInputStream(new FileInputStream(file), RemoteInputStream.Flag.GREEDY);
+                }
+            };
+        }
+    }
+
+    /**
+     * Stores a release streamed from the controller as executable {@code exeName}, runs on the agent.
+     * Bytes are verified while they arrive, a corrupted transfer never replaces a working composer.
+     * @return number of bytes received
+     */
+    static long receive(InputStream in, String sha256, File dir, String exeName) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        File tmp = File.createTempFile(exeName, ".tmp", dir);
+        long bytes;
+        try {
+            MessageDigest md = sha256();
+            InputStream digested = new DigestInputStream(in, md);
+            try {
+                IOUtils.copy(digested, tmp);
+            } finally {
+                digested.close();
+            }
+            String actual = Util.toHexString(md.digest());
+            if (!actual.equalsIgnoreCase(sha256)) {
+                throw new IOException("Checksum mismatch while receiving composer: expected " + sha256 + " but was " + actual);
+            }
+            bytes = tmp.length();
+            tmp.setExecutable(true);
+
+            File target = new File(dir, exeName);
+            if (!tmp.renameTo(target)) {
+                // renaming over an existing file is not atomic on every platform
+                target.delete();
+                if (!tmp.renameTo(target)) {
+                    throw new IOException("Unable to install " + target);
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+
+        OutputStream out = new FileOutputStream(new File(dir, markerName(exeName)));
+        try {
+            out.write(sha256.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes;
+    }
+}
@@ -1,17 +1,22 @@
 package org.jenkinsci.plugins.phpcomposer;
 
+import com.google.common.collect.ImmutableMap;
 import hudson.Plugin;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Created by marcin on 24.07.15.
  */
 public class ComposerPlugin extends Plugin {
 
+    // persisted form, the registry below is what readers use
+    volatile ComposerInstallation[] installations;
 
-    ComposerInstallation[] installations;
+    private transient volatile Registry registry = new Registry(new ComposerInstallation[0]);
 
     public ComposerPlugin(){
         super();
@@ -23,27 +28,31 @@ public class ComposerPlugin extends Plugin {
 
         this.load();
 
-        // If installations have not been read in nodejs.xml, let's initialize them
+        // If installations have not been read in php-composer.xml, let's initialize them
         if(this.installations == null){
             this.installations = new ComposerInstallation[0];
         }
+        publish(this.installations);
     }
 
     public ComposerInstallation[] getInstallations() {
-        return installations;
+        return registry.installations.clone();
     }
 
     public ComposerInstallation findInstallationByName(String name) {
-        for(ComposerInstallation nodeJSInstallation : getInstallations()){
-            if(name.equals(nodeJSInstallation.getName())){
-                return nodeJSInstallation;
-            }
+        ComposerInstallation installation = registry.find(name);
+        if(installation == null){
+            throw new IllegalArgumentException("Composer Installation not found : "+name);
         }
-        throw new IllegalArgumentException("NodeJS Installation not found : "+name);
+        return installation;
     }
 
-    public void setInstallations(ComposerInstallation[] installations) {
-        this.installations = installations;
+    /**
+     * Publishes the new installations at once to all readers and saves them before returning,
+     * concurrent changes are written in the order they were published.
+     */
+    public synchronized void setInstallations(ComposerInstallation[] installations) {
+        publish(installations);
         try {
             this.save();
         } catch (IOException e) {
@@ -51,6 +60,40 @@ public class ComposerPlugin extends Plugin {
         }
     }
 
+    /**
+     * Makes the given installations visible to readers, without saving them.
+     */
+    void publish(ComposerInstallation[] installations) {
+        Registry updated = new Registry(installations);
+        this.registry = updated;
+        this.installations = updated.installations;
+    }
+
     public static ComposerPlugin instance() {
         return Jenkins.getInstance().getPlugin(ComposerPlugin.class);
-    }}
+    }
+
+    /**
+     * Immutable snapshot of configured installations indexed by name.
+     */
+    static final class Registry {
+        private final ComposerInstallation[] installations;
+        private final Map<String, ComposerInstallation> byName;
+
+        Registry(ComposerInstallation[] installations) {
+            this.installations = installations.clone();
+            Map<String, ComposerInstallation> byName = new LinkedHashMap<String, ComposerInstallation>();
+            for(ComposerInstallation installation : this.installations){
+                // first one wins, as with the former linear lookup
+                if(!byName.containsKey(installation.getName())){
+                    byName.put(installation.getName(), installation);
+                }
+            }
+            this.byName = ImmutableMap.copyOf(byName);
+        }
+
+        ComposerInstallation find(String name) {
+            return byName.get(name);
+        }
+    }
+}
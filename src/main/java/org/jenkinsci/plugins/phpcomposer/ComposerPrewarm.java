@@ -0,0 +1,242 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Installs every composer tool on online nodes ahead of builds, so the first build landing on a new agent
+ * or after a configuration change does not pay for the installation.
+ * Nodes are processed concurrently by a bounded pool, installations of a node one after the other.
+ * An installation failing does not keep the following ones of the node from being installed.
+ */
+@ExportedBean
+public final class ComposerPrewarm {
+
+    private static final Logger LOGGER = Logger.getLogger(ComposerPrewarm.class.getName());
+
+    // a pool without threads cannot even be created
+    public static final int CONCURRENCY = Math.max(1, Integer.getInteger(ComposerPrewarm.class.getName() + ".concurrency", 4));
+    static final String LOG_DIR = "composer-prewarm";
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(CONCURRENCY, CONCURRENCY,
+            1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "PHP Composer pre-warm"));
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static volatile ComposerPrewarm last;
+
+    private final String label;
+    private final long startedAt = System.currentTimeMillis();
+    private final List<NodeProgress> nodes = new ArrayList<NodeProgress>();
+    private final CountDownLatch done;
+
+    private ComposerPrewarm(String label, List<Node> nodes) {
+        this.label = label;
+        for (Node node : nodes) {
+            this.nodes.add(new NodeProgress(node));
+        }
+        this.done = new CountDownLatch(nodes.size());
+    }
+
+    /**
+     * Starts installing composer tools on online nodes.
+     * @param label label expression selecting nodes, all online nodes when null
+     */
+    public static ComposerPrewarm start(String label) {
+        label = Util.fixEmptyAndTrim(label);
+        Jenkins jenkins = Jenkins.getInstance();
+        Label selector = label == null ? null : jenkins.getLabel(label);
+
+        List<Node> candidates = new ArrayList<Node>();
+        candidates.add(jenkins);
+        candidates.addAll(jenkins.getNodes());
+        List<Node> online = new ArrayList<Node>();
+        for (Node node : candidates) {
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || node.getChannel() == null) {
+                continue;
+            }
+            if (selector == null || selector.contains(node)) {
+                online.add(node);
+            }
+        }
+
+        final ComposerPrewarm prewarm = new ComposerPrewarm(label, online);
+        for (final NodeProgress progress : prewarm.nodes) {
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        progress.run();
+                    } finally {
+                        prewarm.done.countDown();
+                    }
+                }
+            });
+        }
+        last = prewarm;
+        return prewarm;
+    }
+
+    /**
+     * @return the latest pre-warm, null if none was started since Jenkins started
+     */
+    public static ComposerPrewarm getLast() {
+        return last;
+    }
+
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    @Exported
+    public String getLabel() {
+        return label;
+    }
+
+    @Exported
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    @Exported
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Exported
+    public List<NodeProgress> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class NodeProgress {
+        private final String name;
+        private final transient Node node;
+        private volatile Status status = Status.QUEUED;
+        private volatile int installed;
+        private volatile int total;
+        private volatile long durationMillis;
+        private volatile String message;
+
+        NodeProgress(Node node) {
+            this.name = node.getDisplayName();
+            this.node = node;
+        }
+
+        void run() {
+            status = Status.RUNNING;
+            long start = System.currentTimeMillis();
+            List<String> failures = new ArrayList<String>();
+            try {
+                ComposerInstallation[] installations = ComposerPlugin.instance().getInstallations();
+                total = installations.length;
+                StreamTaskListener listener = new StreamTaskListener(logFile(node));
+                try {
+                    for (ComposerInstallation installation : installations) {
+                        listener.getLogger().println(Messages.ComposerPrewarm_Installing(installation.getName(), name));
+                        try {
+                            // same path as a build, installers run and concurrent builds share the result
+                            installation.forNode(node, listener);
+                            installed++;
+                        } catch (IOException e) {
+                            failures.add(failed(installation, e, listener));
+                        } catch (RuntimeException e) {
+                            failures.add(failed(installation, e, listener));
+                        }
+                    }
+                } finally {
+                    listener.close();
+                }
+                if (failures.isEmpty()) {
+                    status = Status.SUCCEEDED;
+                } else {
+                    message = Util.join(failures, ", ");
+                    status = Status.FAILED;
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to pre-warm composer installations on " + name, e);
+                failures.add(e.toString());
+                message = Util.join(failures, ", ");
+                status = Status.FAILED;
+            } finally {
+                durationMillis = System.currentTimeMillis() - start;
+            }
+        }
+
+        /**
+         * @return failure as reported in the progress of the node
+         */
+        private String failed(ComposerInstallation installation, Exception e, StreamTaskListener listener) {
+            LOGGER.log(Level.WARNING, "Failed to pre-warm composer installation " + installation.getName() + " on " + name, e);
+            e.printStackTrace(listener.error(Messages.ComposerPrewarm_Failed(installation.getName(), name)));
+            return installation.getName() + ": " + e;
+        }
+
+        private static File logFile(Node node) throws IOException {
+            File dir = new File(new File(Jenkins.getInstance().getRootDir(), "logs"), LOG_DIR);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            String name = node.getNodeName().isEmpty() ? "master" : node.getNodeName();
+            return new File(dir, Util.rawEncode(name) + ".log");
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public Status getStatus() {
+            return status;
+        }
+
+        @Exported
+        public int getInstalled() {
+            return installed;
+        }
+
+        @Exported
+        public int getTotal() {
+            return total;
+        }
+
+        @Exported
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Exported
+        public String getMessage() {
+            return message;
+        }
+    }
+}
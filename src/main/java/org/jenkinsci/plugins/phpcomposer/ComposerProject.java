@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A directory holding composer.json whose dependencies are installed before the build steps run.
+ */
+public class ComposerProject {
+
+    public static final String COMPOSER_LOCK = "composer.lock";
+    public static final String VENDOR_DIR = "vendor";
+
+    private static final String PLATFORM_SCRIPT = "echo PHP_VERSION, ' ', PHP_OS, ' ', implode(',', get_loaded_extensions());";
+
+    public enum Outcome {
+        INSTALLED, RESTORED, UP_TO_DATE, FAILED;
+
+        public String toEnvValue() {
+            return name().toLowerCase().replace('_', '-');
+        }
+
+        /**
+         * @return true when composer install did not have to run
+         */
+        public boolean isSkipped() {
+            return this == RESTORED || this == UP_TO_DATE;
+        }
+    }
+
+    private final FilePath dir;
+
+    public ComposerProject(FilePath dir) {
+        this.dir = dir;
+    }
+
+    public FilePath getDir() {
+        return dir;
+    }
+
+    public FilePath getVendorBin() {
+        return dir.child(VENDOR_DIR).child("bin");
+    }
+
+    /**
+     * Runs composer install, restoring vendor directory from a snapshot instead when composer.lock is known.
+     * @param snapshots may be {@code null} to always install
+     */
+    public Outcome install(Launcher launcher, EnvVars env, TaskListener listener, VendorSnapshots snapshots) throws IOException, InterruptedException {
+        FilePath lockFile = dir.child(COMPOSER_LOCK);
+        FilePath vendor = dir.child(VENDOR_DIR);
+
+        if (lockFile.exists()) {
+            List<String> differences = dir.act(new VendorCheck());
+            if (differences.isEmpty()) {
+                listener.getLogger().println(Messages.ComposerProject_UpToDate(dir.getRemote()));
+                return Outcome.UP_TO_DATE;
+            }
+            for (String difference : differences) {
+                listener.getLogger().println(difference);
+            }
+        }
+
+        String snapshotKey = null;
+        if (snapshots != null && lockFile.exists()) {
+            snapshotKey = snapshots.key(lockFile, platform(launcher, env));
+            if (snapshots.restore(snapshotKey, vendor)) {
+                listener.getLogger().println(Messages.ComposerProject_SnapshotRestored(dir.getRemote()));
+                return Outcome.RESTORED;
+            }
+        }
+
+        ArgumentListBuilder install = new ArgumentListBuilder();
+        install.add("composer");
+        install.add("install");
+        install.add("--no-interaction");
+
+        if (launcher.launch().cmds(install).envs(env).pwd(dir).stdout(listener).join() != 0) {
+            listener.error(Messages.ComposerProject_InstallFailed(dir.getRemote()));
+            return Outcome.FAILED;
+        }
+
+        if (snapshotKey != null) {
+            snapshots.capture(snapshotKey, vendor);
+            listener.getLogger().println(Messages.ComposerProject_SnapshotCaptured(dir.getRemote()));
+        }
+        return Outcome.INSTALLED;
+    }
+
+    private String platform(Launcher launcher, EnvVars env) throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exitCode = launcher.launch().cmds(env.get("COMPOSER_PHP_BINARY", PhpProfile.DEFAULT_PHP), "-r", PLATFORM_SCRIPT).envs(env).pwd(dir).stdout(out).quiet(true).join();
+        return exitCode == 0 ? out.toString("UTF-8") : "unknown";
+    }
+}
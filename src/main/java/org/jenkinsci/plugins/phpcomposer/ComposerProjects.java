@@ -0,0 +1,293 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Composer projects of a workspace holding several of them, every composer.json matched by the configured globs
+ * is installed on its own, concurrently with the others.
+ * Projects whose composer.json and composer.lock are identical are installed once, the others get a copy of its
+ * vendor directory. Installs of all builds running on a node share {@link #NODE_CONCURRENCY} permits.
+ */
+public class ComposerProjects {
+
+    public static final String COMPOSER_JSON = "composer.json";
+    public static final String BIN_VARIABLE_PREFIX = "COMPOSER_PROJECT_BIN_";
+    public static final String BINS_VARIABLE = "COMPOSER_PROJECT_BINS";
+    public static final int NODE_CONCURRENCY = Integer.getInteger(ComposerProjects.class.getName() + ".nodeConcurrency", 4);
+
+    private static final String EXCLUDES = "**/" + ComposerProject.VENDOR_DIR + "/**";
+    private static final ConcurrentMap<String, Semaphore> PERMITS = new ConcurrentHashMap<String, Semaphore>();
+
+    private final FilePath workspace;
+    private final List<ComposerProject> projects;
+
+    public ComposerProjects(FilePath workspace, List<ComposerProject> projects) {
+        this.workspace = workspace;
+        this.projects = projects;
+    }
+
+    /**
+     * @param globs comma separated Ant globs of composer.json files, relative to the workspace
+     */
+    public static ComposerProjects find(FilePath workspace, String globs) throws IOException, InterruptedException {
+        FilePath[] files = workspace.list(globs, EXCLUDES);
+        Arrays.sort(files, new Comparator<FilePath>() {
+            @Override
+            public int compare(FilePath o1, FilePath o2) {
+                return o1.getRemote().compareTo(o2.getRemote());
+            }
+        });
+        List<ComposerProject> projects = new ArrayList<ComposerProject>();
+        for (FilePath file : files) {
+            if (file.getName().equals(COMPOSER_JSON)) {
+                projects.add(new ComposerProject(file.getParent()));
+            }
+        }
+        return new ComposerProjects(workspace, projects);
+    }
+
+    public List<ComposerProject> getProjects() {
+        return Collections.unmodifiableList(projects);
+    }
+
+    /**
+     * Build steps start in the workspace, not in the project they work on, the vendor/bin of each project is therefore
+     * exported on its own: {@code COMPOSER_PROJECT_BIN_<PATH>} where PATH is the project directory relative to the workspace,
+     * upper cased with anything but letters and digits replaced by '_' ({@code ROOT} for the workspace itself),
+     * and {@code COMPOSER_PROJECT_BINS} listing all of them with the given path separator.
+     * @return variable name to value, in workspace order
+     */
+    public Map<String, String> getBinVariables(String pathSeparator) {
+        Map<String, String> variables = new LinkedHashMap<String, String>();
+        StringBuilder bins = new StringBuilder();
+        for (ComposerProject project : projects) {
+            String bin = project.getVendorBin().getRemote();
+            String path = relative(project);
+            String name = BIN_VARIABLE_PREFIX + (path.isEmpty() ? "ROOT" : path.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]", "_"));
+            if (variables.containsKey(name)) {
+                // paths only differing by punctuation, the first project keeps the name
+                continue;
+            }
+            variables.put(name, bin);
+            if (bins.length() > 0) {
+                bins.append(pathSeparator);
+            }
+            bins.append(bin);
+        }
+        if (bins.length() > 0) {
+            variables.put(BINS_VARIABLE, bins.toString());
+        }
+        return variables;
+    }
+
+    /**
+     * @return one composer.lock per distinct content
+     */
+    public List<FilePath> getLockFiles() throws IOException, InterruptedException {
+        List<FilePath> lockFiles = new ArrayList<FilePath>();
+        for (List<ComposerProject> group : group().values()) {
+            FilePath lockFile = group.get(0).getDir().child(ComposerProject.COMPOSER_LOCK);
+            if (lockFile.exists()) {
+                lockFiles.add(lockFile);
+            }
+        }
+        return lockFiles;
+    }
+
+    /**
+     * @return projects grouped by content of composer.json and composer.lock, in workspace order
+     */
+    private Map<String, List<ComposerProject>> group() throws IOException, InterruptedException {
+        Map<String, List<ComposerProject>> groups = new LinkedHashMap<String, List<ComposerProject>>();
+        for (ComposerProject project : projects) {
+            FilePath lockFile = project.getDir().child(ComposerProject.COMPOSER_LOCK);
+            // without composer.lock every install resolves on its own
+            String key = lockFile.exists()
+                    ? project.getDir().child(COMPOSER_JSON).digest() + lockFile.digest()
+                    : project.getDir().getRemote();
+            List<ComposerProject> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<ComposerProject>();
+                groups.put(key, group);
+            }
+            group.add(project);
+        }
+        return groups;
+    }
+
+    /**
+     * Installs all projects, the output of each install is written to the listener in one block once it is done.
+     */
+    public Report install(Node node, final Launcher launcher, final EnvVars env, final TaskListener listener,
+                          final VendorSnapshots snapshots, final Charset charset) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        Map<String, List<ComposerProject>> groups = group();
+        listener.getLogger().println(Messages.ComposerProjects_Found(projects.size(), groups.size()));
+
+        final Report report = new Report();
+        if (groups.isEmpty()) {
+            return report;
+        }
+        final Semaphore permits = permits(node);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(NODE_CONCURRENCY, groups.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "composer project install"));
+        try {
+            List<Future<Void>> installs = new ArrayList<Future<Void>>();
+            for (final List<ComposerProject> group : groups.values()) {
+                installs.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        permits.acquire();
+                        try {
+                            install(group, launcher, env, listener, snapshots, charset, report);
+                        } finally {
+                            permits.release();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> install : installs) {
+                try {
+                    install.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        report.wallMillis = System.currentTimeMillis() - start;
+        return report;
+    }
+
+    private void install(List<ComposerProject> group, Launcher launcher, EnvVars env, TaskListener listener,
+                         VendorSnapshots snapshots, Charset charset, Report report) throws IOException, InterruptedException {
+        ComposerProject leader = group.get(0);
+        long start = System.currentTimeMillis();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ComposerProject.Outcome outcome;
+        try {
+            outcome = leader.install(launcher, env, new StreamTaskListener(output, charset), snapshots);
+        } finally {
+            synchronized (listener) {
+                listener.getLogger().write(output.toByteArray());
+            }
+        }
+        report.add(relative(leader), outcome, System.currentTimeMillis() - start, null);
+
+        FilePath vendor = leader.getDir().child(ComposerProject.VENDOR_DIR);
+        for (ComposerProject follower : group.subList(1, group.size())) {
+            start = System.currentTimeMillis();
+            ComposerProject.Outcome copied = outcome;
+            if (outcome != ComposerProject.Outcome.FAILED) {
+                copyVendor(vendor, follower.getDir().child(ComposerProject.VENDOR_DIR));
+                copied = ComposerProject.Outcome.RESTORED;
+            }
+            report.add(relative(follower), copied, System.currentTimeMillis() - start, relative(leader));
+        }
+    }
+
+    /**
+     * Replaces the target with a copy of the whole vendor tree, dotfiles and symbolic links included.
+     */
+    static void copyVendor(FilePath vendor, FilePath target) throws IOException, InterruptedException {
+        target.deleteRecursive();
+        vendor.copyRecursiveTo(new VendorScanner(), target, vendor.getRemote());
+    }
+
+    private String relative(ComposerProject project) {
+        String path = project.getDir().getRemote().substring(workspace.getRemote().length());
+        path = path.replace('\\', '/');
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static Semaphore permits(Node node) {
+        String name = node == null ? "" : node.getNodeName();
+        Semaphore permits = PERMITS.get(name);
+        if (permits == null) {
+            Semaphore created = new Semaphore(NODE_CONCURRENCY, true);
+            permits = PERMITS.putIfAbsent(name, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Timings of every project of a multi-project install.
+     */
+    public static final class Report {
+        private final List<String> lines = new ArrayList<String>();
+        private final List<ComposerProject.Outcome> outcomes = new ArrayList<ComposerProject.Outcome>();
+        private long totalMillis;
+        private long wallMillis;
+
+        private synchronized void add(String path, ComposerProject.Outcome outcome, long durationMillis, String copiedFrom) {
+            String name = path.isEmpty() ? "." : path;
+            lines.add(copiedFrom == null
+                    ? Messages.ComposerProjects_Project(name, outcome.toEnvValue(), durationMillis)
+                    : Messages.ComposerProjects_Copied(name, outcome.toEnvValue(), durationMillis, copiedFrom.isEmpty() ? "." : copiedFrom));
+            outcomes.add(outcome);
+            totalMillis += durationMillis;
+        }
+
+        /**
+         * @return FAILED if any project failed, INSTALLED if any was installed, otherwise the outcome of the projects
+         */
+        public synchronized ComposerProject.Outcome getOutcome() {
+            if (outcomes.contains(ComposerProject.Outcome.FAILED)) {
+                return ComposerProject.Outcome.FAILED;
+            }
+            if (outcomes.contains(ComposerProject.Outcome.INSTALLED)) {
+                return ComposerProject.Outcome.INSTALLED;
+            }
+            if (outcomes.contains(ComposerProject.Outcome.RESTORED)) {
+                return ComposerProject.Outcome.RESTORED;
+            }
+            return ComposerProject.Outcome.UP_TO_DATE;
+        }
+
+        @Override
+        public synchronized String toString() {
+            List<String> sorted = new ArrayList<String>(lines);
+            Collections.sort(sorted);
+            StringBuilder sb = new StringBuilder(Messages.ComposerProjects_Report(sorted.size(), wallMillis, totalMillis));
+            for (String line : sorted) {
+                sb.append('\n').append(line);
+            }
+            return sb.toString();
+        }
+    }
+}
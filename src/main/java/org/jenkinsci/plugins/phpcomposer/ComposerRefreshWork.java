@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstaller;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes composer and global dependencies of already installed composer tools in the background,
+ * one task per online node, so builds only wait for a first time installation.
+ */
+@Extension
+public class ComposerRefreshWork extends AsyncPeriodicWork {
+
+    public ComposerRefreshWork() {
+        super("PHP Composer refresh");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(15);
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+        ComposerPlugin plugin = ComposerPlugin.instance();
+        if (plugin == null || plugin.getInstallations().length == 0) {
+            return;
+        }
+
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(Jenkins.getInstance());
+        nodes.addAll(Jenkins.getInstance().getNodes());
+
+        List<Future<Void>> refreshes = new ArrayList<Future<Void>>();
+        for (final Node node : nodes) {
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || node.getChannel() == null) {
+                continue;
+            }
+            refreshes.add(Computer.threadPoolForRemoting.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    refresh(node, listener);
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<Void> refresh : refreshes) {
+            try {
+                refresh.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace(listener.error("Composer refresh failed"));
+            }
+        }
+    }
+
+    private void refresh(Node node, TaskListener listener) throws IOException, InterruptedException {
+        for (ComposerInstallation installation : ComposerPlugin.instance().getInstallations()) {
+            InstallSourceProperty installSource = installation.getProperties().get(InstallSourceProperty.class);
+            if (installSource == null) {
+                continue;
+            }
+            for (ToolInstaller installer : installSource.installers) {
+                if (installer instanceof ComposerInstaller && installer.appliesTo(node)) {
+                    if (((ComposerInstaller) installer).refresh(installation, node, listener)) {
+                        listener.getLogger().println(Messages.ComposerRefreshWork_Refreshed(installation.getName(), node.getDisplayName()));
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.RootAction;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Composer repository kept by the controller, filled with the packages of the composer.lock files builds use.
+ * Dist archives are downloaded once by the controller and handed to the {@link DistPrefetcher} of nodes over their
+ * channel, so installs keep working when the public registry is slow or down. Users with Overall/Read can also
+ * download them from /composer-repository/dists/.
+ * <ul>
+ *     <li>{@code packages/<vendor>/<name>/<version>.json}: package as found in composer.lock,</li>
+ *     <li>{@code dists/<vendor>/<name>/<key>.<type>}: dist archive named as in the composer cache, immutable once stored.</li>
+ * </ul>
+ * Packages whose dist was not served for {@code ComposerRepository.maxIdleDays} days, 90 by default, are evicted.
+ */
+@Extension
+public class ComposerRepository implements RootAction {
+
+    private static final Logger LOGGER = Logger.getLogger(ComposerRepository.class.getName());
+
+    public static final String URL_NAME = "composer-repository";
+    static final String PACKAGES_DIR = "packages";
+    static final String DISTS_DIR = "dists";
+
+    static final int DEFAULT_MAX_IDLE_DAYS = 90;
+
+    private static final long DIST_EXPIRATION = TimeUnit.DAYS.toMillis(365);
+    // dists are touched when served at most this often, eviction does not need more precision
+    private static final long SERVED_RESOLUTION = TimeUnit.HOURS.toMillis(1);
+
+    private final ExecutorService downloader = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "PHP Composer repository downloader"));
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public static ComposerRepository get() {
+        return Jenkins.getInstance().getExtensionList(RootAction.class).get(ComposerRepository.class);
+    }
+
+    /**
+     * @param channel channel of the node the prefetcher runs on
+     * @return dists of the repository, exported over the channel when the node is an agent
+     */
+    public DistPrefetcher.DistSource getDistSource(VirtualChannel channel) {
+        DistPrefetcher.DistSource source = new Dists();
+        if (channel instanceof Channel) {
+            source = ((Channel) channel).export(DistPrefetcher.DistSource.class, source);
+        }
+        return source;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.ComposerRepository_DisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    File getRoot() {
+        return new File(Jenkins.getInstance().getRootDir(), URL_NAME);
+    }
+
+    /**
+     * Queues the download of every package of the given composer.lock not in the repository yet, returns once the lock is read.
+     * Only dists of http or https URLs from the allowed hosts are taken, see {@link #isAllowed(String)}.
+     */
+    public void feed(InputStream lock) {
+        try {
+            LockedPackage.read(lock, true, new LockedPackage.Visitor() {
+                @Override
+                public void visit(LockedPackage pkg) {
+                    try {
+                        feed(pkg);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.INFO, "Not adding " + pkg.name + " " + pkg.version + " to the composer repository", e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            // composer itself reports broken lock files
+            LOGGER.log(Level.FINE, "Ignoring unreadable composer.lock", e);
+        }
+    }
+
+    private void feed(final LockedPackage pkg) throws IOException {
+        String type = pkg.distType.isEmpty() ? "zip" : pkg.distType;
+        if (pkg.distUrl.isEmpty() || !DistPrefetcher.isSafeSegment(pkg.getReference()) || !isAllowed(pkg.distUrl)) {
+            return;
+        }
+        final String path = DistPrefetcher.cacheFile(pkg.name, pkg.distUrl, type, pkg.getReference());
+        if (path == null) {
+            return;
+        }
+        final File metadata = file(PACKAGES_DIR, pkg.name + "/" + Util.rawEncode(pkg.version) + ".json");
+        if (metadata.exists() || !pending.add(metadata.getPath())) {
+            return;
+        }
+        downloader.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(pkg, path, metadata);
+                } catch (IOException e) {
+                    LOGGER.log(Level.INFO, "Unable to add " + pkg.name + " " + pkg.version + " to the composer repository", e);
+                } finally {
+                    pending.remove(metadata.getPath());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether dists may be downloaded from the given URL: http or https, from a host of the
+     * comma separated {@code ComposerRepository.allowedHosts} system property if it is set
+     */
+    static boolean isAllowed(String url) {
+        URL parsed;
+        try {
+            parsed = new URL(url);
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        if (!parsed.getProtocol().equals("http") && !parsed.getProtocol().equals("https")) {
+            return false;
+        }
+        String hosts = Util.fixEmptyAndTrim(System.getProperty(ComposerRepository.class.getName() + ".allowedHosts"));
+        if (hosts == null) {
+            return true;
+        }
+        for (String host : hosts.split(",")) {
+            if (host.trim().equalsIgnoreCase(parsed.getHost())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return file at the given path below a directory of the repository, never outside of it
+     */
+    private File file(String dir, String path) throws IOException {
+        File base = new File(getRoot(), dir).getCanonicalFile();
+        File file = new File(base, path);
+        if (!file.getCanonicalPath().startsWith(base.getPath() + File.separator)) {
+            throw new IOException(path + " is outside of " + base);
+        }
+        return file;
+    }
+
+    private void store(LockedPackage pkg, String path, File metadata) throws IOException {
+        File archive = file(DISTS_DIR, path);
+        if (!archive.exists()) {
+            File dir = archive.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            new ResumableDownload(new URL(pkg.distUrl), archive).viaProxy()
+                    .verify("SHA-1", pkg.distShasum).fetch(false);
+        }
+        // eviction goes by the last time the dist was stored or served
+        archive.setLastModified(System.currentTimeMillis());
+
+        // the package as locked, with the dist of the repository
+        JSONObject stored = JSONObject.fromObject(pkg.json);
+        stored.getJSONObject("dist").put("url", DISTS_DIR + "/" + path);
+        File dir = metadata.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        // eviction reads whatever metadata exists, it must never see a partial file
+        File tmp = File.createTempFile(".metadata", ".tmp", dir);
+        FileUtils.writeStringToFile(tmp, stored.toString(), "UTF-8");
+        if (!tmp.renameTo(metadata)) {
+            tmp.delete();
+            throw new IOException("Unable to write " + metadata);
+        }
+    }
+
+    /**
+     * @return stored dist at the given path, marked as served
+     * @throws FileNotFoundException if the repository does not have it
+     */
+    private File served(String path) throws IOException {
+        File archive = isSafe(path) ? file(DISTS_DIR, path) : null;
+        if (archive == null || !archive.isFile()) {
+            throw new FileNotFoundException(path + " is not in the composer repository");
+        }
+        if (archive.lastModified() < System.currentTimeMillis() - SERVED_RESOLUTION) {
+            archive.setLastModified(System.currentTimeMillis());
+        }
+        return archive;
+    }
+
+    /**
+     * Removes packages whose dist was neither stored nor served for the given time.
+     * @return number of packages removed
+     */
+    int evict(long maxIdle) throws IOException {
+        long cutoff = System.currentTimeMillis() - maxIdle;
+        int evicted = 0;
+        File[] vendors = new File(getRoot(), PACKAGES_DIR).listFiles(DIRECTORIES);
+        if (vendors != null) {
+            for (File vendor : vendors) {
+                File[] names = vendor.listFiles(DIRECTORIES);
+                if (names == null) {
+                    continue;
+                }
+                for (File name : names) {
+                    File[] versions = name.listFiles(METADATA);
+                    if (versions == null) {
+                        continue;
+                    }
+                    for (File version : versions) {
+                        File archive;
+                        try {
+                            String url = JSONObject.fromObject(FileUtils.readFileToString(version, "UTF-8"))
+                                    .getJSONObject("dist").getString("url");
+                            archive = file(DISTS_DIR, url.substring(DISTS_DIR.length() + 1));
+                        } catch (JSONException e) {
+                            archive = null;
+                        } catch (IOException e) {
+                            archive = null;
+                        }
+                        if (archive == null || !archive.isFile() || archive.lastModified() < cutoff) {
+                            if (archive != null) {
+                                archive.delete();
+                            }
+                            version.delete();
+                            evicted++;
+                        }
+                    }
+                }
+            }
+        }
+        evictOrphans(new File(getRoot(), DISTS_DIR), cutoff);
+        return evicted;
+    }
+
+    /**
+     * Dists left behind without metadata, by a download interrupted before its metadata was written.
+     */
+    private static void evictOrphans(File dir, long cutoff) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                evictOrphans(file, cutoff);
+            } else if (file.lastModified() < cutoff) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Serves the dist archives under /composer-repository/dists/, nodes read them through {@link #getDistSource} instead.
+     */
+    public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        String path = req.getRestOfPath();
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (!path.startsWith(DISTS_DIR + "/")) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        File archive;
+        try {
+            archive = served(path.substring(DISTS_DIR.length() + 1));
+        } catch (IOException e) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // dists never change once stored, they are cached as long as possible
+        rsp.serveFile(req, archive.toURI().toURL(), DIST_EXPIRATION);
+    }
+
+    private static boolean isSafe(String path) {
+        if (path.isEmpty()) {
+            return false;
+        }
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.contains("\\")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final FileFilter METADATA = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isFile() && file.getName().endsWith(".json");
+        }
+    };
+
+    private static final FileFilter DIRECTORIES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isDirectory();
+        }
+    };
+
+    /**
+     * Dists read by the prefetcher of a node, see {@link DistPrefetcher.DistSource}.
+     */
+    private final class Dists implements DistPrefetcher.DistSource {
+        @Override
+        public InputStream open(String file) throws IOException {
+            // pushed to the node at once, the prefetcher reads it whole
+            return new RemoteInputStream(new FileInputStream(served(file)), RemoteInputStream.Flag.GREEDY);
+        }
+    }
+
+    /**
+     * Evicts packages of the repository no build asked for lately, once a day.
+     */
+    @Extension
+    public static class EvictionWork extends AsyncPeriodicWork {
+
+        public EvictionWork() {
+            super("PHP Composer repository eviction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.DAYS.toMillis(1);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            int maxIdleDays = Integer.getInteger(ComposerRepository.class.getName() + ".maxIdleDays", DEFAULT_MAX_IDLE_DAYS);
+            ComposerRepository repository = get();
+            if (maxIdleDays <= 0 || repository == null) {
+                return;
+            }
+            int evicted = repository.evict(TimeUnit.DAYS.toMillis(maxIdleDays));
+            listener.getLogger().println("Evicted " + evicted + " packages from the composer repository");
+        }
+    }
+}
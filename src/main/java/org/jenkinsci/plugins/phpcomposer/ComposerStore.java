@@ -0,0 +1,260 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import hudson.os.PosixAPI;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node wide content addressed store of composer phars, shared by all composer installations of the node.
+ * Phars are stored once under their SHA-256 and installations hard link them, so several installations
+ * of the same release cost the disk space of one and switching a pinned version back and forth is a link.
+ * Used on the node only; platforms without hard links get copies.
+ * Changes to the store are serialized by a lock file, executors and agents of other controllers
+ * sharing the node never see an entry pruned between its lookup and its link.
+ */
+final class ComposerStore {
+
+    static final String STORE_DIR = "composer-store";
+
+    private static final String PHARS = "phar";
+    private static final String VERSIONS = "versions";
+    private static final String PHAR_SUFFIX = ".phar";
+    private static final String LOCK_FILE = ".lock";
+
+    // file locks are held by the whole JVM, threads of the agent are serialized beforehand
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File root;
+
+    ComposerStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Links the phar of the given release, if already stored, as {@code exe}.
+     * @return false if the release is not in the store
+     */
+    boolean linkVersion(final String version, final File exe) throws IOException {
+        return locked(new Locked<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                File index = index(version);
+                return index.exists() && linkEntry(FileUtils.readFileToString(index, "UTF-8").trim(), exe);
+            }
+        });
+    }
+
+    /**
+     * Links the phar with the given checksum, if already stored, as {@code exe}.
+     * @return false if no such phar is in the store
+     */
+    boolean linkPhar(final String sha256, final File exe) throws IOException {
+        return locked(new Locked<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return linkEntry(sha256, exe);
+            }
+        });
+    }
+
+    private boolean linkEntry(String sha256, File exe) throws IOException {
+        File entry = entry(sha256);
+        if (!entry.exists()) {
+            return false;
+        }
+        try {
+            link(entry, exe);
+        } catch (IOException e) {
+            // the caller installs a copy of its own instead
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves a freshly installed phar into the store and replaces it with a link to the stored copy.
+     * @param version release the phar is known to be, null when unknown
+     */
+    void adopt(final File exe, final String version) throws IOException {
+        final String sha256 = sha256(exe);
+        locked(new Locked<Void>() {
+            @Override
+            public Void call() throws IOException {
+                adopt(exe, version, sha256);
+                return null;
+            }
+        });
+    }
+
+    private void adopt(File exe, String version, String sha256) throws IOException {
+        File entry = entry(sha256);
+        if (!entry.exists()) {
+            File dir = entry.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            link(exe, entry);
+        }
+        link(entry, exe);
+        if (version != null) {
+            FileUtils.writeStringToFile(index(version), sha256, "UTF-8");
+        }
+        prune();
+    }
+
+    private interface Locked<T> {
+        T call() throws IOException;
+    }
+
+    private <T> T locked(Locked<T> body) throws IOException {
+        if (!root.isDirectory() && !root.mkdirs() && !root.isDirectory()) {
+            throw new IOException("Unable to create " + root);
+        }
+        String key = root.getCanonicalPath();
+        LOCKS.putIfAbsent(key, new Object());
+        synchronized (LOCKS.get(key)) {
+            RandomAccessFile file = new RandomAccessFile(new File(root, LOCK_FILE), "rw");
+            try {
+                FileLock lock;
+                try {
+                    lock = file.getChannel().lock();
+                } catch (IOException e) {
+                    // file system without locks, only this agent is serialized
+                    lock = null;
+                }
+                try {
+                    return body.call();
+                } finally {
+                    if (lock != null) {
+                        lock.release();
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private File index(String version) {
+        return new File(new File(root, VERSIONS), Util.rawEncode(version));
+    }
+
+    private File entry(String sha256) {
+        return new File(new File(root, PHARS), sha256.toLowerCase() + PHAR_SUFFIX);
+    }
+
+    /**
+     * Drops phars of unknown release no installation links anymore, typically left behind by self-update.
+     * Phars of known releases are kept so pinning them again needs no download.
+     */
+    private void prune() throws IOException {
+        File[] entries = new File(root, PHARS).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(PHAR_SUFFIX);
+            }
+        });
+        String[] versions = new File(root, VERSIONS).list();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (links(entry) != 1 || isVersioned(entry, versions)) {
+                continue;
+            }
+            entry.delete();
+        }
+    }
+
+    private boolean isVersioned(File entry, String[] versions) throws IOException {
+        if (versions == null) {
+            return false;
+        }
+        String sha256 = entry.getName().substring(0, entry.getName().length() - PHAR_SUFFIX.length());
+        for (String version : versions) {
+            if (FileUtils.readFileToString(new File(new File(root, VERSIONS), version), "UTF-8").trim().equals(sha256)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of hard links to the file, 0 when it cannot be told
+     */
+    private static int links(File file) {
+        try {
+            return PosixAPI.jnr().stat(file.getPath()).nlink();
+        } catch (RuntimeException e) {
+            return 0;
+        } catch (LinkageError e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replaces {@code target} by a hard link to {@code source}, or by a copy where hard links are not available
+     * or fail, for instance across file systems.
+     */
+    private static void link(File source, File target) throws IOException {
+        // unique name, several installations may be linked in the same directory at once
+        File tmp = File.createTempFile("." + target.getName(), ".link", target.getParentFile());
+        tmp.delete();
+        if (!hardLink(source, tmp)) {
+            FileUtils.copyFile(source, tmp);
+        }
+        tmp.setExecutable(true);
+        if (!tmp.renameTo(target)) {
+            // renaming over an existing file is not atomic on every platform
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Unable to link " + target + " to " + source);
+            }
+        }
+        // renaming a link over another link to the same file leaves both in place
+        tmp.delete();
+    }
+
+    private static boolean hardLink(File source, File target) {
+        try {
+            return PosixAPI.jnr().link(source.getPath(), target.getPath()) == 0;
+        } catch (RuntimeException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new DigestInputStream(new FileInputStream(file), md);
+        try {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // digested while read
+            }
+        } finally {
+            in.close();
+        }
+        return Util.toHexString(md.digest());
+    }
+}
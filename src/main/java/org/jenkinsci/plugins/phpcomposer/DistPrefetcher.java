@@ -0,0 +1,300 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.IOUtils;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads the dist archives listed in composer.lock concurrently into the composer cache of the node,
+ * so the following composer install only copies them from the cache.
+ * Runs on the node holding composer.lock; archives are stored where composer 2 looks for them,
+ * {@code files/<package>/<sha1 of the dist URL>.<type>}, see {@link #cacheFile}.
+ * When the controller keeps a {@link ComposerRepository}, archives are read from it over the channel of the node first
+ * and only downloaded from their original location when it does not have them.
+ */
+public class DistPrefetcher extends MasterToSlaveFileCallable<DistPrefetcher.Report> {
+
+    private static final Logger LOGGER = Logger.getLogger(DistPrefetcher.class.getName());
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    static final String CACHE_FILES_DIR = "files";
+
+    private static final int RETRIES = 3;
+    private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    // same rules as composer for package names, anything else could escape the cache directory
+    private static final Pattern PACKAGE_NAME = Pattern.compile("[a-z0-9]([_.-]?[a-z0-9]+)*/[a-z0-9](([_.]?|-{0,2})[a-z0-9]+)*");
+    private static final Pattern SAFE_SEGMENT = Pattern.compile("[A-Za-z0-9._-]+");
+
+    // archive URLs composer rewrites to point to the locked reference, see UrlUtil::updateDistReference
+    private static final Pattern GITHUB_ARCHIVE = Pattern.compile("(?i)^https?://(?:www\\.)?github\\.com/([^/]+)/([^/]+)/(zip|tar)ball/(.+)$");
+    private static final Pattern GITHUB_LEGACY_ARCHIVE = Pattern.compile("(?i)^https?://(?:www\\.)?github\\.com/([^/]+)/([^/]+)/archive/.+\\.(zip|tar)(?:\\.gz)?$");
+    private static final Pattern GITHUB_API_ARCHIVE = Pattern.compile("(?i)^https?://api\\.github\\.com/repos/([^/]+)/([^/]+)/(zip|tar)ball(?:/.+)?$");
+    private static final Pattern BITBUCKET_ARCHIVE = Pattern.compile("(?i)^https?://(?:www\\.)?bitbucket\\.org/([^/]+)/([^/]+)/get/(.+)\\.(zip|tar\\.gz|tar\\.bz2)$");
+    private static final Pattern GITLAB_ARCHIVE = Pattern.compile("(?i)^https?://(?:www\\.)?gitlab\\.com/api/v[34]/projects/([^/]+)/repository/archive\\.(zip|tar\\.gz|tar\\.bz2|tar)\\?sha=.+$");
+
+    private final String cacheDir;
+    private final int concurrency;
+    private DistSource repository;
+
+    public DistPrefetcher(String cacheDir, int concurrency) {
+        this.cacheDir = cacheDir;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * @param repository dists of the repository of the controller, tried before the original dist URL,
+     * see {@link ComposerRepository#getDistSource}
+     */
+    public DistPrefetcher withRepository(DistSource repository) {
+        this.repository = repository;
+        return this;
+    }
+
+    @Override
+    public Report invoke(File lockFile, VirtualChannel channel) throws IOException, InterruptedException {
+        final Report report = new Report();
+        if (!lockFile.exists()) {
+            return report;
+        }
+
+        final List<Dist> dists = new ArrayList<Dist>();
+        LockedPackage.read(lockFile, false, new LockedPackage.Visitor() {
+            @Override
+            public void visit(LockedPackage pkg) throws IOException {
+                String file = cacheFile(pkg.name, pkg.distUrl, pkg.distType.isEmpty() ? "zip" : pkg.distType, pkg.distReference);
+                if (file != null) {
+                    dists.add(new Dist(pkg.distUrl, file, pkg.distShasum));
+                }
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, dists.size())),
+                new NamingThreadFactory(new DaemonThreadFactory(), "composer dist prefetch"));
+        try {
+            List<Future<Void>> downloads = new ArrayList<Future<Void>>();
+            for (final Dist dist : dists) {
+                final File target = new File(cacheDir, CACHE_FILES_DIR + "/" + dist.file);
+                if (target.exists()) {
+                    report.cached.incrementAndGet();
+                    continue;
+                }
+                downloads.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        download(dist, target, report);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> download : downloads) {
+                try {
+                    download.get();
+                } catch (ExecutionException e) {
+                    report.failed.incrementAndGet();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return report;
+    }
+
+    private void download(Dist dist, File target, Report report) throws IOException, InterruptedException {
+        File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        if (repository != null) {
+            // a single attempt, the original location is the fallback
+            File tmp = File.createTempFile(target.getName(), ".tmp", dir);
+            try {
+                store(tmp, copy(dist, "the controller repository", repository.open(dist.file), tmp), target, report);
+                return;
+            } catch (FileNotFoundException e) {
+                LOGGER.log(Level.FINE, "{0} is not in the controller repository yet, downloading {1}", new Object[]{dist.file, dist.url});
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, "Unable to read " + dist.file + " from the controller repository, downloading " + dist.url, e);
+            } finally {
+                tmp.delete();
+            }
+        }
+
+        IOException failure = null;
+        for (int attempt = 0; attempt < RETRIES; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(1L << attempt));
+            }
+            File tmp = File.createTempFile(target.getName(), ".tmp", dir);
+            try {
+                store(tmp, fetch(dist, dist.url, tmp), target, report);
+                return;
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                tmp.delete();
+            }
+        }
+        throw failure;
+    }
+
+    private static void store(File tmp, long bytes, File target, Report report) throws IOException {
+        // another executor may have fetched it meanwhile, both copies are identical
+        if (!tmp.renameTo(target) && !target.exists()) {
+            throw new IOException("Unable to store " + target);
+        }
+        report.fetched.incrementAndGet();
+        report.bytes.addAndGet(bytes);
+    }
+
+    private long fetch(Dist dist, String url, File tmp) throws IOException {
+        URLConnection con = new URL(url).openConnection();
+        con.setConnectTimeout(TIMEOUT_MILLIS);
+        con.setReadTimeout(TIMEOUT_MILLIS);
+        return copy(dist, url, con.getInputStream(), tmp);
+    }
+
+    /**
+     * Copies the dist read from the given location to tmp, verifying its checksum on the way.
+     */
+    private static long copy(Dist dist, String location, InputStream stream, File tmp) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            stream.close();
+            throw new IOException(e);
+        }
+        InputStream in = new DigestInputStream(stream, md);
+        try {
+            IOUtils.copy(in, tmp);
+        } finally {
+            in.close();
+        }
+        if (!dist.shasum.isEmpty()) {
+            String actual = Util.toHexString(md.digest());
+            if (!actual.equalsIgnoreCase(dist.shasum)) {
+                throw new IOException("Checksum mismatch for " + dist.file + " from " + location + ": expected " + dist.shasum + " but was " + actual);
+            }
+        }
+        return tmp.length();
+    }
+
+    /**
+     * Dist archives kept by the controller, handed to nodes over their channel so no credentials are needed.
+     */
+    public interface DistSource {
+        /**
+         * @param file path of the dist as given by {@link DistPrefetcher#cacheFile}
+         * @throws FileNotFoundException when the controller does not have the dist
+         */
+        InputStream open(String file) throws IOException;
+    }
+
+    private static final class Dist {
+        private final String url;
+        private final String file;
+        private final String shasum;
+
+        Dist(String url, String file, String shasum) {
+            this.url = url;
+            this.file = file;
+            this.shasum = shasum;
+        }
+    }
+
+    /**
+     * Path of a dist archive in the files directory of the composer cache, {@code <package>/<key>.<type>},
+     * the key being the SHA-1 of the URL composer downloads the archive from (composer 2 FileDownloader).
+     * @return null when the dist is not downloaded over http(s), or when name or type cannot be used in a path
+     */
+    static String cacheFile(String name, String url, String type, String reference) throws IOException {
+        if (!PACKAGE_NAME.matcher(name).matches() || !isSafeSegment(type)
+                || !(url.startsWith("https://") || url.startsWith("http://"))) {
+            return null;
+        }
+        return name + "/" + sha1(processUrl(url, reference)) + "." + type;
+    }
+
+    static boolean isSafeSegment(String segment) {
+        return SAFE_SEGMENT.matcher(segment).matches() && !segment.equals(".") && !segment.equals("..");
+    }
+
+    /**
+     * @return URL composer downloads the dist from, archives of the well known hosts are rewritten to the locked reference
+     */
+    static String processUrl(String url, String reference) {
+        if (reference.isEmpty()) {
+            return url;
+        }
+        Matcher m = GITHUB_ARCHIVE.matcher(url);
+        if (!m.matches()) {
+            m = GITHUB_LEGACY_ARCHIVE.matcher(url);
+        }
+        if (!m.matches()) {
+            m = GITHUB_API_ARCHIVE.matcher(url);
+        }
+        if (m.matches()) {
+            return "https://api.github.com/repos/" + m.group(1) + "/" + m.group(2) + "/" + m.group(3) + "ball/" + reference;
+        }
+        m = BITBUCKET_ARCHIVE.matcher(url);
+        if (m.matches()) {
+            return "https://bitbucket.org/" + m.group(1) + "/" + m.group(2) + "/get/" + reference + "." + m.group(4);
+        }
+        m = GITLAB_ARCHIVE.matcher(url);
+        if (m.matches()) {
+            return "https://gitlab.com/api/v4/projects/" + m.group(1) + "/repository/archive." + m.group(2) + "?sha=" + reference;
+        }
+        return url;
+    }
+
+    private static String sha1(String value) throws IOException {
+        try {
+            return Util.toHexString(MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static final class Report implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicLong cached = new AtomicLong();
+        private final AtomicLong fetched = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return Messages.DistPrefetcher_Report(fetched.get(), bytes.get(), cached.get(), failed.get());
+        }
+    }
+}
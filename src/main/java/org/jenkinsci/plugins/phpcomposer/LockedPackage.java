@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+/**
+ * Package listed in composer.lock or vendor/composer/installed.json.
+ * Files are read with a streaming parser handing packages out one at a time,
+ * the lock of a large project is never held in memory as a whole.
+ */
+final class LockedPackage {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    interface Visitor {
+        void visit(LockedPackage pkg) throws IOException;
+    }
+
+    String name = "";
+    String version = "";
+    String distType = "";
+    String distUrl = "";
+    String distReference = "";
+    String distShasum = "";
+    String sourceReference = "";
+    /**
+     * Package as written in the file, only kept when asked for.
+     */
+    String json;
+
+    private LockedPackage() {
+    }
+
+    /**
+     * @return reference of the dist, of the source when the dist has none
+     */
+    String getReference() {
+        return distReference.isEmpty() ? sourceReference : distReference;
+    }
+
+    /**
+     * Reads packages and dev packages of a composer.lock file, or the installed packages of an installed.json file
+     * written by composer 1 (plain array) or composer 2 (object holding the packages).
+     * @param keepJson true to keep the JSON of each package in {@link #json}
+     */
+    static void read(File file, boolean keepJson, Visitor visitor) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            read(in, keepJson, visitor);
+        } finally {
+            in.close();
+        }
+    }
+
+    static void read(InputStream in, boolean keepJson, Visitor visitor) throws IOException {
+        JsonParser parser = JSON.createParser(in);
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                packages(parser, keepJson, visitor);
+            } else if (token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY
+                            && (field.equals("packages") || field.equals("packages-dev"))) {
+                        packages(parser, keepJson, visitor);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void packages(JsonParser parser, boolean keepJson, Visitor visitor) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            if (!keepJson) {
+                visitor.visit(read(parser));
+                continue;
+            }
+            StringWriter json = new StringWriter();
+            JsonGenerator generator = JSON.createGenerator(json);
+            generator.copyCurrentStructure(parser);
+            generator.close();
+            JsonParser copy = JSON.createParser(json.toString());
+            try {
+                copy.nextToken();
+                LockedPackage pkg = read(copy);
+                pkg.json = json.toString();
+                visitor.visit(pkg);
+            } finally {
+                copy.close();
+            }
+        }
+    }
+
+    private static LockedPackage read(JsonParser parser) throws IOException {
+        LockedPackage pkg = new LockedPackage();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("name")) {
+                pkg.name = text(parser);
+            } else if (field.equals("version")) {
+                pkg.version = text(parser);
+            } else if (field.equals("dist") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String distField = parser.getCurrentName();
+                    parser.nextToken();
+                    if (distField.equals("type")) {
+                        pkg.distType = text(parser);
+                    } else if (distField.equals("url")) {
+                        pkg.distUrl = text(parser);
+                    } else if (distField.equals("reference")) {
+                        pkg.distReference = text(parser);
+                    } else if (distField.equals("shasum")) {
+                        pkg.distShasum = text(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if (field.equals("source") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String sourceField = parser.getCurrentName();
+                    parser.nextToken();
+                    if (sourceField.equals("reference")) {
+                        pkg.sourceReference = text(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return pkg;
+    }
+
+    private static String text(JsonParser parser) throws IOException {
+        String text = parser.getValueAsString();
+        if (text == null) {
+            parser.skipChildren();
+            return "";
+        }
+        return text;
+    }
+}
@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.util.ArgumentListBuilder;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PHP runtime settings composer runs with, for installer commands as well as for builds.
+ * Interpreter settings are passed as {@code -d} flags, by the installer directly and in builds through a
+ * {@code composer} wrapper script put first on PATH; composer settings go to the global configuration of
+ * the installation (COMPOSER_HOME/config.json) so every composer command honours them.
+ */
+public final class PhpProfile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String DEFAULT_PHP = "php";
+    static final String BIN_DIR = "profile-bin";
+    static final String CONFIG_JSON = "config.json";
+
+    private final String php;
+    private final String memoryLimit;
+    private final String opcacheFileCache;
+    private final int processTimeout;
+    private final boolean optimizeAutoloader;
+    private final boolean classmapAuthoritative;
+    private final boolean preferDist;
+
+    /**
+     * @param php interpreter, null for the one on PATH
+     * @param memoryLimit memory_limit, null for the default
+     * @param opcacheFileCache persistent opcache directory, null to leave opcache off
+     * @param processTimeout timeout of processes started by composer in seconds, 0 for the default
+     */
+    public PhpProfile(String php, String memoryLimit, String opcacheFileCache, int processTimeout,
+                      boolean optimizeAutoloader, boolean classmapAuthoritative, boolean preferDist) {
+        this.php = php;
+        this.memoryLimit = memoryLimit;
+        this.opcacheFileCache = opcacheFileCache;
+        this.processTimeout = processTimeout;
+        this.optimizeAutoloader = optimizeAutoloader;
+        this.classmapAuthoritative = classmapAuthoritative;
+        this.preferDist = preferDist;
+    }
+
+    public String getPhp() {
+        return php == null ? DEFAULT_PHP : php;
+    }
+
+    /**
+     * @return true if php needs flags, in which case builds get the wrapper script
+     */
+    public boolean hasIniSettings() {
+        return php != null || memoryLimit != null || opcacheFileCache != null;
+    }
+
+    /**
+     * @return php with the ini settings of this profile, followed by the script
+     */
+    public ArgumentListBuilder command(String script) {
+        ArgumentListBuilder cmd = new ArgumentListBuilder();
+        cmd.add(getPhp());
+        for (String setting : iniSettings()) {
+            cmd.add("-d");
+            cmd.add(setting);
+        }
+        cmd.add(script);
+        return cmd;
+    }
+
+    private List<String> iniSettings() {
+        List<String> settings = new ArrayList<String>();
+        if (memoryLimit != null) {
+            settings.add("memory_limit=" + memoryLimit);
+        }
+        if (opcacheFileCache != null) {
+            // compiled composer sources survive between processes
+            settings.add("opcache.enable_cli=1");
+            settings.add("opcache.file_cache=" + opcacheFileCache);
+            settings.add("opcache.file_cache_only=1");
+        }
+        return settings;
+    }
+
+    public void buildEnvVars(EnvVars env) {
+        if (memoryLimit != null) {
+            // composer raises memory_limit on its own unless told otherwise
+            env.override("COMPOSER_MEMORY_LIMIT", memoryLimit);
+        }
+        if (processTimeout > 0) {
+            env.override("COMPOSER_PROCESS_TIMEOUT", Integer.toString(processTimeout));
+        }
+        if (php != null) {
+            env.override("COMPOSER_PHP_BINARY", php);
+        }
+    }
+
+    /**
+     * Writes the wrapper scripts and the global composer configuration into the installation, runs on the node.
+     */
+    void apply(File home) throws IOException {
+        if (opcacheFileCache != null) {
+            File cache = new File(opcacheFileCache);
+            if (!cache.isDirectory() && !cache.mkdirs()) {
+                throw new IOException("Unable to create " + cache);
+            }
+        }
+        writeWrappers(home);
+        writeConfig(home);
+    }
+
+    private void writeWrappers(File home) throws IOException {
+        File bin = new File(home, BIN_DIR);
+        if (!hasIniSettings()) {
+            FileUtils.deleteDirectory(bin);
+            return;
+        }
+        if (!bin.isDirectory() && !bin.mkdirs()) {
+            throw new IOException("Unable to create " + bin);
+        }
+        String composer = new File(home, ComposerInstaller.COMPOSER_EXE_NAME).getPath();
+
+        StringBuilder sh = new StringBuilder("#!/bin/sh\nexec");
+        StringBuilder bat = new StringBuilder("@");
+        for (String arg : command(composer).toList()) {
+            sh.append(' ').append('\'').append(arg.replace("'", "'\\''")).append('\'');
+            bat.append('"').append(arg).append('"').append(' ');
+        }
+        sh.append(" \"$@\"\n");
+        bat.append("%*\r\n");
+
+        File script = new File(bin, ComposerInstaller.COMPOSER_EXE_NAME);
+        FileUtils.writeStringToFile(script, sh.toString(), "UTF-8");
+        script.setExecutable(true);
+        FileUtils.writeStringToFile(new File(bin, ComposerInstaller.COMPOSER_EXE_NAME + ".bat"), bat.toString(), "UTF-8");
+    }
+
+    private void writeConfig(File home) throws IOException {
+        File file = new File(home, CONFIG_JSON);
+        JSONObject json = file.exists() ? JSONObject.fromObject(FileUtils.readFileToString(file, "UTF-8")) : new JSONObject();
+        JSONObject config = json.optJSONObject("config");
+        if (config == null || config.isNullObject()) {
+            config = new JSONObject();
+        }
+        set(config, "optimize-autoloader", optimizeAutoloader ? Boolean.TRUE : null);
+        set(config, "classmap-authoritative", classmapAuthoritative ? Boolean.TRUE : null);
+        set(config, "preferred-install", preferDist ? "dist" : null);
+        set(config, "process-timeout", processTimeout > 0 ? processTimeout : null);
+        if (config.isEmpty()) {
+            json.remove("config");
+        } else {
+            json.put("config", config);
+        }
+        if (json.isEmpty()) {
+            file.delete();
+        } else {
+            FileUtils.writeStringToFile(file, json.toString(4), "UTF-8");
+        }
+    }
+
+    private static void set(JSONObject config, String key, Object value) {
+        if (value == null) {
+            config.remove(key);
+        } else {
+            config.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Option;
+
+/**
+ * {@code prewarm-composer [-l label]}: installs composer tools on online nodes and waits for the outcome.
+ */
+@Extension
+public class PrewarmComposerCommand extends CLICommand {
+
+    @Option(name = "-l", metaVar = "LABEL", usage = "Label expression selecting the nodes, all online nodes by default")
+    public String label;
+
+    @Override
+    public String getShortDescription() {
+        return Messages.PrewarmComposerCommand_ShortDescription();
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        ComposerPrewarm prewarm = ComposerPrewarm.start(label);
+        prewarm.await();
+
+        int failures = 0;
+        for (ComposerPrewarm.NodeProgress node : prewarm.getNodes()) {
+            if (node.getStatus() == ComposerPrewarm.Status.FAILED) {
+                failures++;
+                stderr.println(node.getName() + ": " + node.getStatus() + " " + node.getMessage());
+            } else {
+                stdout.println(node.getName() + ": " + node.getStatus() + " (" + node.getDurationMillis() + " ms)");
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+}
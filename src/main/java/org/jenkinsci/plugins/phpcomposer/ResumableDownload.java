@@ -0,0 +1,331 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file next to its target and renames it in place once complete and verified, so a failed
+ * download never damages the previous copy.
+ * <ul>
+ *     <li>ETag and Last-Modified of the previous download make the request conditional,</li>
+ *     <li>an interrupted download is resumed with a Range request as long as the server validator did not change,</li>
+ *     <li>bytes are digested while they arrive and checked against the expected checksum before the rename.</li>
+ * </ul>
+ * Plain java.net, usable on the controller as well as on agents.
+ */
+final class ResumableDownload {
+
+    private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final long CHUNK = 64 * 1024;
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private final URL url;
+    private final File target;
+    private boolean viaProxy;
+    private String algorithm;
+    private String expected;
+    private URL checksumUrl;
+    private long bytes;
+    private boolean resumed;
+
+    ResumableDownload(URL url, File target) {
+        this.url = url;
+        this.target = target;
+    }
+
+    /**
+     * Connects through the proxy configured in Jenkins, controller only.
+     */
+    ResumableDownload viaProxy() {
+        this.viaProxy = true;
+        return this;
+    }
+
+    ResumableDownload verify(String algorithm, String expected) {
+        this.algorithm = algorithm;
+        this.expected = Util.fixEmptyAndTrim(expected);
+        return this;
+    }
+
+    /**
+     * Expected checksum is the first word of the given document, only fetched when the file itself is downloaded.
+     */
+    ResumableDownload verify(String algorithm, URL checksumUrl) {
+        this.algorithm = algorithm;
+        this.checksumUrl = checksumUrl;
+        return this;
+    }
+
+    /**
+     * @param conditional skip the download if the server reports the previous download is still current
+     * @return false if the target is up to date
+     * @throws ServerError if the server answered with an unexpected status
+     */
+    boolean fetch(boolean conditional) throws IOException {
+        File part = sibling(".part");
+        File partValidator = sibling(".part.validator");
+        File validators = sibling(".validators");
+
+        URLConnection con = open(url);
+        if (conditional && target.exists() && validators.exists()) {
+            Properties previous = load(validators);
+            if (previous.getProperty(ETAG) != null) {
+                con.setRequestProperty("If-None-Match", previous.getProperty(ETAG));
+            }
+            if (previous.getProperty(LAST_MODIFIED) != null) {
+                con.setIfModifiedSince(Long.parseLong(previous.getProperty(LAST_MODIFIED)));
+            }
+        }
+        long offset = 0;
+        if (part.exists() && part.length() > 0 && partValidator.exists()) {
+            offset = part.length();
+            con.setRequestProperty("Range", "bytes=" + offset + "-");
+            // the server sends the whole file again if it changed since the interruption
+            con.setRequestProperty("If-Range", read(partValidator));
+        }
+        con.connect();
+
+        int responseCode = HttpURLConnection.HTTP_OK;
+        if (con instanceof HttpURLConnection) {
+            HttpURLConnection httpCon = (HttpURLConnection) con;
+            responseCode = httpCon.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                httpCon.disconnect();
+                return false;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                String message = httpCon.getResponseMessage();
+                httpCon.disconnect();
+                throw new ServerError(url, responseCode, message);
+            }
+        }
+        if (responseCode != HttpURLConnection.HTTP_PARTIAL || !String.valueOf(con.getHeaderField("Content-Range")).startsWith("bytes " + offset + "-")) {
+            offset = 0;
+        }
+        resumed = offset > 0;
+
+        String etag = con.getHeaderField("ETag");
+        String lastModified = con.getHeaderField("Last-Modified");
+        // weak validators cannot be used with If-Range, such downloads start over when interrupted
+        String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        if (validator != null) {
+            write(partValidator, validator);
+        } else {
+            partValidator.delete();
+        }
+
+        MessageDigest md = digest();
+        if (md != null && offset > 0) {
+            digest(part, md);
+        }
+
+        long length = contentLength(con);
+        long position = offset;
+        RandomAccessFile file = new RandomAccessFile(part, "rw");
+        try {
+            FileChannel out = file.getChannel();
+            out.truncate(offset);
+            InputStream stream = con.getInputStream();
+            if (md != null) {
+                stream = new DigestInputStream(stream, md);
+            }
+            ReadableByteChannel in = Channels.newChannel(stream);
+            try {
+                long transferred;
+                while ((transferred = out.transferFrom(in, position, CHUNK)) > 0) {
+                    position += transferred;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (validator == null) {
+                // nothing to resume from
+                part.delete();
+            }
+            throw e;
+        } finally {
+            file.close();
+        }
+        bytes = position - offset;
+        if (length >= 0 && bytes != length) {
+            // connection dropped, what arrived is kept for the next attempt
+            throw new IOException("Download of " + url + " truncated after " + bytes + " of " + length + " bytes");
+        }
+
+        if (md != null) {
+            String expected = this.expected != null ? this.expected : checksum();
+            String actual = Util.toHexString(md.digest());
+            if (!actual.equalsIgnoreCase(expected)) {
+                part.delete();
+                partValidator.delete();
+                throw new IOException("Checksum mismatch for " + url + ": expected " + expected + " but was " + actual);
+            }
+        }
+
+        if (!part.renameTo(target)) {
+            // renaming over an existing file is not atomic on every platform
+            target.delete();
+            if (!part.renameTo(target)) {
+                throw new IOException("Unable to store " + target);
+            }
+        }
+        partValidator.delete();
+
+        Properties current = new Properties();
+        if (etag != null) {
+            current.setProperty(ETAG, etag);
+        }
+        if (con.getLastModified() != 0) {
+            current.setProperty(LAST_MODIFIED, Long.toString(con.getLastModified()));
+        }
+        store(validators, current);
+        return true;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Forgets validators of the previous download so the next one is unconditional.
+     */
+    static void forget(File target) {
+        new File(target.getParentFile(), "." + target.getName() + ".validators").delete();
+    }
+
+    private File sibling(String suffix) {
+        return new File(target.getParentFile(), "." + target.getName() + suffix);
+    }
+
+    private URLConnection open(URL url) throws IOException {
+        URLConnection con = viaProxy ? ProxyConfiguration.open(url) : url.openConnection();
+        con.setConnectTimeout(TIMEOUT_MILLIS);
+        con.setReadTimeout(TIMEOUT_MILLIS);
+        return con;
+    }
+
+    private MessageDigest digest() throws IOException {
+        if (algorithm == null || (expected == null && checksumUrl == null)) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private String checksum() throws IOException {
+        InputStream in = open(checksumUrl).getInputStream();
+        try {
+            return IOUtils.toString(in, "UTF-8").trim().split("\\s+")[0];
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long contentLength(URLConnection con) {
+        String length = con.getHeaderField("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void digest(File file, MessageDigest md) throws IOException {
+        InputStream in = new DigestInputStream(new FileInputStream(file), md);
+        try {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // digested while read
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return IOUtils.toString(in, "UTF-8").trim();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String value) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(value.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static void store(File file, Properties properties) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Server answered neither with the file nor with "not modified".
+     */
+    static final class ServerError extends IOException {
+        private final int responseCode;
+
+        ServerError(URL url, int responseCode, String message) {
+            super("Server error while downloading " + url + ": " + responseCode + " " + message);
+            this.responseCode = responseCode;
+        }
+
+        int getResponseCode() {
+            return responseCode;
+        }
+    }
+}
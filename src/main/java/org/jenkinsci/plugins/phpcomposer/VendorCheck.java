@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares packages locked in composer.lock with those installed in vendor/composer/installed.json.
+ * Runs on the node holding the project directory and returns the packages that differ,
+ * an empty list meaning composer install has nothing to do.
+ * Both files are streamed, only names, versions and references are kept, see {@link LockedPackage}.
+ */
+public class VendorCheck extends MasterToSlaveFileCallable<List<String>> {
+
+    static final String INSTALLED_JSON = "vendor/composer/installed.json";
+
+    @Override
+    public List<String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+        File lockFile = new File(dir, ComposerProject.COMPOSER_LOCK);
+        File installedFile = new File(dir, INSTALLED_JSON);
+        List<String> differences = new ArrayList<String>();
+        if (!lockFile.exists() || !installedFile.exists()) {
+            differences.add(Messages.VendorCheck_NothingInstalled());
+            return differences;
+        }
+
+        Map<String, String> locked = read(lockFile);
+        // composer 1 writes a plain array, composer 2 an object holding the packages
+        Map<String, String> installed = read(installedFile);
+
+        for (Map.Entry<String, String> pkg : locked.entrySet()) {
+            String installedVersion = installed.remove(pkg.getKey());
+            if (installedVersion == null) {
+                differences.add(Messages.VendorCheck_Missing(pkg.getKey(), pkg.getValue()));
+            } else if (!installedVersion.equals(pkg.getValue())) {
+                differences.add(Messages.VendorCheck_Changed(pkg.getKey(), installedVersion, pkg.getValue()));
+            }
+        }
+        for (Map.Entry<String, String> pkg : installed.entrySet()) {
+            differences.add(Messages.VendorCheck_Extraneous(pkg.getKey(), pkg.getValue()));
+        }
+        return differences;
+    }
+
+    /**
+     * @return package name to {@code version@reference}
+     */
+    private static Map<String, String> read(File file) throws IOException {
+        final Map<String, String> versions = new TreeMap<String, String>();
+        LockedPackage.read(file, false, new LockedPackage.Visitor() {
+            @Override
+            public void visit(LockedPackage pkg) {
+                versions.put(pkg.name, pkg.version + "@" + pkg.getReference());
+            }
+        });
+        return versions;
+    }
+}
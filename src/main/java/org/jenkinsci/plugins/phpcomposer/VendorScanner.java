@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Scans a vendor tree as a whole. Unlike glob based scanners no Ant default excludes apply,
+ * packages keep their .git directories and .gitattributes files; empty directories and symbolic
+ * links (vendor/bin) are kept as well.
+ */
+final class VendorScanner extends DirScanner {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void scan(File dir, FileVisitor visitor) throws IOException {
+        scan(dir, "", visitor);
+    }
+
+    private void scan(File dir, String prefix, FileVisitor visitor) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String relativePath = prefix + child.getName();
+            String target = visitor.understandsSymlink() ? resolveSymlink(child) : null;
+            if (target != null) {
+                visitor.visitSymlink(child, target, relativePath);
+                continue;
+            }
+            visitor.visit(child, relativePath);
+            if (child.isDirectory()) {
+                scan(child, relativePath + "/", visitor);
+            }
+        }
+    }
+
+    private static String resolveSymlink(File file) throws IOException {
+        try {
+            return Util.resolveSymlink(file);
+        } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException(e.toString()).initCause(e);
+        }
+    }
+}
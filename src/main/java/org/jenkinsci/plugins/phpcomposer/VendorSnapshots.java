@@ -0,0 +1,236 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import hudson.util.io.ArchiverFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static hudson.FilePath.TarCompression.GZIP;
+
+/**
+ * Compressed snapshots of vendor directories kept on a node, keyed by the hash of composer.lock
+ * and of the PHP platform the dependencies were installed for.
+ */
+public class VendorSnapshots {
+
+    public static final String SNAPSHOTS_DIR = "composer-vendor-snapshots";
+    private static final String SNAPSHOT_EXTENSION = ".tar.gz";
+
+    private final FilePath root;
+    private final int retention;
+
+    /**
+     * @param retention number of snapshots kept, {@link ComposerBuildWrapper#DEFAULT_SNAPSHOT_RETENTION} when not positive
+     */
+    public VendorSnapshots(FilePath root, int retention) {
+        this.root = root;
+        this.retention = retention > 0 ? retention : ComposerBuildWrapper.DEFAULT_SNAPSHOT_RETENTION;
+    }
+
+    /**
+     * @return snapshots stored on the given node, {@code null} if node is offline
+     */
+    public static VendorSnapshots forNode(Node node, int retention) {
+        FilePath rootPath = node == null ? null : node.getRootPath();
+        if (rootPath == null) {
+            return null;
+        }
+        return new VendorSnapshots(rootPath.child(SNAPSHOTS_DIR), retention);
+    }
+
+    public String key(FilePath lockFile, String platform) throws IOException, InterruptedException {
+        return lockFile.act(new Hash(platform));
+    }
+
+    /**
+     * Replaces vendor directory by the snapshot content, see {@link Restore}.
+     * @return true if a snapshot was found
+     */
+    public boolean restore(String key, FilePath vendor) throws IOException, InterruptedException {
+        return vendor.act(new Restore(root.child(key + SNAPSHOT_EXTENSION).getRemote()));
+    }
+
+    public void capture(String key, FilePath vendor) throws IOException, InterruptedException {
+        if (vendor.exists()) {
+            vendor.act(new Capture(root.getRemote(), key, retention));
+        }
+    }
+
+    private static final class Hash extends MasterToSlaveFileCallable<String> {
+        private final String platform;
+
+        Hash(String platform) {
+            this.platform = platform;
+        }
+
+        @Override
+        public String invoke(File lockFile, VirtualChannel channel) throws IOException, InterruptedException {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            InputStream in = new FileInputStream(lockFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            md.update(platform.getBytes("UTF-8"));
+            return Util.toHexString(md.digest());
+        }
+    }
+
+    /**
+     * Extracts the snapshot next to the vendor directory, which is only replaced once extraction succeeded.
+     * The snapshot is opened before anything else: pruning can no longer take it away during the restore.
+     */
+    private static final class Restore extends MasterToSlaveFileCallable<Boolean> {
+        private final String snapshot;
+
+        Restore(String snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Boolean invoke(File vendor, VirtualChannel channel) throws IOException, InterruptedException {
+            File archive = new File(snapshot);
+            InputStream in;
+            try {
+                in = new FileInputStream(archive);
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+            try {
+                // keeps recently used snapshots out of retention
+                archive.setLastModified(System.currentTimeMillis());
+
+                File parent = vendor.getAbsoluteFile().getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("Unable to create " + parent);
+                }
+                File staging = File.createTempFile(".vendor-restore", "", parent);
+                if (!staging.delete() || !staging.mkdir()) {
+                    throw new IOException("Unable to create " + staging);
+                }
+                try {
+                    new FilePath(staging).untarFrom(in, GZIP);
+                    replace(vendor, staging);
+                } finally {
+                    if (staging.exists()) {
+                        Util.deleteRecursive(staging);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            return true;
+        }
+
+        private static void replace(File vendor, File staging) throws IOException {
+            File old = null;
+            if (vendor.exists() || Util.isSymlink(vendor)) {
+                old = new File(staging.getParentFile(), staging.getName() + ".old");
+                if (!vendor.renameTo(old)) {
+                    throw new IOException("Unable to move " + vendor + " aside");
+                }
+            }
+            if (!staging.renameTo(vendor)) {
+                if (old != null) {
+                    old.renameTo(vendor);
+                }
+                throw new IOException("Unable to move restored vendor directory to " + vendor);
+            }
+            if (old != null) {
+                Util.deleteRecursive(old);
+            }
+        }
+    }
+
+    private static final class Capture extends MasterToSlaveFileCallable<Void> {
+        private final String root;
+        private final String key;
+        private final int retention;
+
+        Capture(String root, String key, int retention) {
+            this.root = root;
+            this.key = key;
+            this.retention = retention;
+        }
+
+        @Override
+        public Void invoke(File vendor, VirtualChannel channel) throws IOException, InterruptedException {
+            File dir = new File(root);
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create vendor snapshots directory " + dir);
+            }
+
+            File snapshot = new File(dir, key + SNAPSHOT_EXTENSION);
+            if (snapshot.exists()) {
+                return null;
+            }
+
+            // concurrent builds may capture the same key, only a complete archive is ever renamed in place
+            File tmp = File.createTempFile(key, ".tmp", dir);
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    new FilePath(vendor).archive(ArchiverFactory.TARGZ, out, new VendorScanner());
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(snapshot) && !snapshot.exists()) {
+                    throw new IOException("Unable to store vendor snapshot " + snapshot);
+                }
+            } finally {
+                tmp.delete();
+            }
+
+            prune(dir);
+            return null;
+        }
+
+        private void prune(File dir) {
+            File[] snapshots = dir.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(SNAPSHOT_EXTENSION);
+                }
+            });
+            if (snapshots == null || snapshots.length <= retention) {
+                return;
+            }
+            Arrays.sort(snapshots, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    long l1 = o1.lastModified();
+                    long l2 = o2.lastModified();
+                    return l1 > l2 ? -1 : (l1 == l2 ? 0 : 1);
+                }
+            });
+            for (int i = retention; i < snapshots.length; i++) {
+                snapshots[i].delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import com.google.inject.Inject;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.AbstractTaskListener;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
+import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code withComposer(installation: 'composer') { sh 'composer install' }}: resolves and installs the composer
+ * tool once for the block, nested steps get the resulting environment without resolving it again.
+ */
+public class WithComposerStep extends AbstractStepImpl {
+
+    private static final Logger LOGGER = Logger.getLogger(WithComposerStep.class.getName());
+
+    private final String installation;
+    private String cacheDir;
+    private Long cacheMaxSizeMb;
+    private boolean installDependencies;
+    private boolean vendorSnapshots;
+    private int snapshotRetention = ComposerBuildWrapper.DEFAULT_SNAPSHOT_RETENTION;
+    private boolean prefetchDists;
+    private int prefetchConcurrency = DistPrefetcher.DEFAULT_CONCURRENCY;
+    private boolean reduceLog;
+    private int logBufferLines = ComposerLogFilter.DEFAULT_BUFFER_LINES;
+
+    @DataBoundConstructor
+    public WithComposerStep(String installation) {
+        this.installation = installation;
+    }
+
+    public String getInstallation() {
+        return installation;
+    }
+
+    /**
+     * @return package cache directory overriding the one of the installation, null to keep it
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    @DataBoundSetter
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = Util.fixEmptyAndTrim(cacheDir);
+    }
+
+    /**
+     * @return package cache budget overriding the one of the installation, null to keep it
+     */
+    public Long getCacheMaxSizeMb() {
+        return cacheMaxSizeMb;
+    }
+
+    @DataBoundSetter
+    public void setCacheMaxSizeMb(Long cacheMaxSizeMb) {
+        this.cacheMaxSizeMb = cacheMaxSizeMb;
+    }
+
+    public boolean isInstallDependencies() {
+        return installDependencies;
+    }
+
+    @DataBoundSetter
+    public void setInstallDependencies(boolean installDependencies) {
+        this.installDependencies = installDependencies;
+    }
+
+    public boolean isVendorSnapshots() {
+        return vendorSnapshots;
+    }
+
+    @DataBoundSetter
+    public void setVendorSnapshots(boolean vendorSnapshots) {
+        this.vendorSnapshots = vendorSnapshots;
+    }
+
+    public int getSnapshotRetention() {
+        return snapshotRetention;
+    }
+
+    @DataBoundSetter
+    public void setSnapshotRetention(int snapshotRetention) {
+        this.snapshotRetention = Math.max(1, snapshotRetention);
+    }
+
+    public boolean isPrefetchDists() {
+        return prefetchDists;
+    }
+
+    @DataBoundSetter
+    public void setPrefetchDists(boolean prefetchDists) {
+        this.prefetchDists = prefetchDists;
+    }
+
+    public int getPrefetchConcurrency() {
+        return prefetchConcurrency;
+    }
+
+    @DataBoundSetter
+    public void setPrefetchConcurrency(int prefetchConcurrency) {
+        this.prefetchConcurrency = Math.max(1, prefetchConcurrency);
+    }
+
+    public boolean isReduceLog() {
+        return reduceLog;
+    }
+
+    @DataBoundSetter
+    public void setReduceLog(boolean reduceLog) {
+        this.reduceLog = reduceLog;
+    }
+
+    public int getLogBufferLines() {
+        return logBufferLines;
+    }
+
+    @DataBoundSetter
+    public void setLogBufferLines(int logBufferLines) {
+        this.logBufferLines = Math.max(0, logBufferLines);
+    }
+
+    /**
+     * Environment the installation adds to the given one. Values prepended to a path variable are kept as
+     * {@code PATH+COMPOSER} entries, so they are prepended to whatever that variable holds inside the block
+     * instead of replacing it.
+     */
+    static Map<String, String> overrides(EnvVars env, ComposerInstallation installation) {
+        EnvVars expanded = new EnvVars(env);
+        installation.buildEnvVars(expanded);
+        Map<String, String> overrides = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : expanded.entrySet()) {
+            String value = entry.getValue();
+            String previous = env.get(entry.getKey());
+            if (value.equals(previous)) {
+                continue;
+            }
+            if (previous != null && !previous.isEmpty() && value.length() > previous.length() + 1 && value.endsWith(previous)) {
+                char separator = value.charAt(value.length() - previous.length() - 1);
+                if (separator == ':' || separator == ';') {
+                    overrides.put(entry.getKey() + "+COMPOSER", value.substring(0, value.length() - previous.length() - 1));
+                    continue;
+                }
+            }
+            overrides.put(entry.getKey(), value);
+        }
+        return overrides;
+    }
+
+    static void apply(EnvVars env, Map<String, String> overrides) {
+        for (Map.Entry<String, String> override : overrides.entrySet()) {
+            env.override(override.getKey(), override.getValue());
+        }
+    }
+
+    public static class Execution extends AbstractStepExecutionImpl {
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient WithComposerStep step;
+        @StepContextParameter
+        private transient Computer computer;
+        @StepContextParameter
+        private transient TaskListener listener;
+        @StepContextParameter
+        private transient EnvVars env;
+        @StepContextParameter
+        private transient FilePath workspace;
+        @StepContextParameter
+        private transient Launcher launcher;
+
+        @Override
+        public boolean start() throws Exception {
+            long start = System.currentTimeMillis();
+            Node node = computer.getNode();
+            if (node == null) {
+                throw new AbortException("Composer cannot be installed on " + computer.getDisplayName() + ", it is no longer connected");
+            }
+
+            ComposerInstallation configured;
+            try {
+                configured = ComposerPlugin.instance().findInstallationByName(step.getInstallation());
+            } catch (IllegalArgumentException e) {
+                throw new AbortException(e.getMessage());
+            }
+            ComposerInstallation resolved = configured.forNode(node, listener).forEnvironment(env);
+            if (step.getCacheDir() != null) {
+                resolved.setCacheDir(step.getCacheDir());
+            }
+            if (step.getCacheMaxSizeMb() != null) {
+                resolved.setCacheMaxSizeMb(step.getCacheMaxSizeMb());
+            }
+            FilePath cache = resolved.getCache(node);
+            long cacheSince = cache == null ? 0 : cache.act(new ComposerCache.Prepare());
+
+            Map<String, String> overrides = overrides(env, resolved);
+            listener.getLogger().println(Messages.WithComposerStep_Resolved(resolved.getName(), node.getDisplayName(),
+                    System.currentTimeMillis() - start));
+
+            FilteredListener filtered = step.isReduceLog() ? new FilteredListener(listener, step.getLogBufferLines()) : null;
+            FilePath lockFile = workspace.child(ComposerProject.COMPOSER_LOCK);
+            Callback callback = new Callback(getContext(), node.getNodeName(), cache == null ? null : cache.getRemote(),
+                    cacheSince, resolved.getCacheMaxSizeBytes(), lockFile.getRemote(), filtered);
+
+            if (step.isPrefetchDists() && cache != null && lockFile.exists()) {
+                listener.getLogger().println(lockFile.act(new DistPrefetcher(cache.getRemote(), step.getPrefetchConcurrency())));
+            }
+            if (step.isInstallDependencies()) {
+                EnvVars installEnv = new EnvVars(env);
+                apply(installEnv, overrides);
+                VendorSnapshots snapshots = step.isVendorSnapshots() ? VendorSnapshots.forNode(node, step.getSnapshotRetention()) : null;
+                ComposerProject.Outcome outcome = new ComposerProject(workspace)
+                        .install(launcher, installEnv, filtered == null ? listener : filtered, snapshots);
+                if (outcome == ComposerProject.Outcome.FAILED) {
+                    callback.finish(true);
+                    throw new AbortException(Messages.WithComposerStep_InstallFailed());
+                }
+                overrides.put("COMPOSER_INSTALL_OUTCOME", outcome.toEnvValue());
+                overrides.put("COMPOSER_INSTALL_SKIPPED", Boolean.toString(outcome.isSkipped()));
+            }
+
+            BodyInvoker body = getContext().newBodyInvoker()
+                    .withContext(new ExpanderImpl(getContext().get(EnvironmentExpander.class), overrides))
+                    .withCallback(callback);
+            if (filtered != null) {
+                body.withContext(filtered);
+            }
+            body.start();
+            return false;
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            // the body is stopped on its own, nothing is held by this step
+        }
+    }
+
+    /**
+     * Applies the expander of enclosing steps first, then the composer environment.
+     */
+    private static final class ExpanderImpl extends EnvironmentExpander {
+        private static final long serialVersionUID = 1L;
+
+        private final EnvironmentExpander original;
+        private final Map<String, String> overrides;
+
+        ExpanderImpl(EnvironmentExpander original, Map<String, String> overrides) {
+            this.original = original;
+            this.overrides = overrides;
+        }
+
+        @Override
+        public void expand(EnvVars env) throws IOException, InterruptedException {
+            if (original != null) {
+                original.expand(env);
+            }
+            apply(env, overrides);
+        }
+    }
+
+    /**
+     * Listener of the steps of the block when composer output is collapsed, see {@link ComposerLogFilter}.
+     * The filter is rebuilt if the build is resumed after a restart, collapsed lines held until then are lost.
+     */
+    private static final class FilteredListener extends AbstractTaskListener {
+        private static final long serialVersionUID = 1L;
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private final TaskListener delegate;
+        private final int bufferLines;
+        private transient ComposerLogFilter filter;
+        private transient PrintStream logger;
+
+        FilteredListener(TaskListener delegate, int bufferLines) {
+            this.delegate = delegate;
+            this.bufferLines = bufferLines;
+        }
+
+        @Override
+        public synchronized PrintStream getLogger() {
+            if (logger == null) {
+                filter = new ComposerLogFilter(delegate.getLogger(), UTF_8, bufferLines);
+                try {
+                    logger = new PrintStream(filter, true, UTF_8.name());
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return logger;
+        }
+
+        synchronized void finish(boolean failed) throws IOException {
+            if (filter == null) {
+                return;
+            }
+            logger.flush();
+            if (failed) {
+                filter.dumpSuppressed();
+            }
+            filter.finish();
+        }
+
+        @Override
+        public PrintWriter error(String msg) {
+            getLogger().println("ERROR: " + msg);
+            return new PrintWriter(new OutputStreamWriter(getLogger(), UTF_8), true);
+        }
+
+        @Override
+        public PrintWriter error(String format, Object... args) {
+            return error(String.format(format, args));
+        }
+
+        @Override
+        public PrintWriter fatalError(String msg) {
+            getLogger().println("FATAL: " + msg);
+            return new PrintWriter(new OutputStreamWriter(getLogger(), UTF_8), true);
+        }
+
+        @Override
+        public PrintWriter fatalError(String format, Object... args) {
+            return fatalError(String.format(format, args));
+        }
+    }
+
+    /**
+     * Completes the step with the outcome of its body, once the package cache of the block was maintained.
+     */
+    private static final class Callback extends BodyExecutionCallback {
+        private static final long serialVersionUID = 1L;
+
+        private final StepContext context;
+        private final String nodeName;
+        private final String cacheDir;
+        private final long cacheSince;
+        private final long cacheMaxSizeBytes;
+        private final String lockFile;
+        private final FilteredListener filtered;
+
+        Callback(StepContext context, String nodeName, String cacheDir, long cacheSince, long cacheMaxSizeBytes,
+                 String lockFile, FilteredListener filtered) {
+            this.context = context;
+            this.nodeName = nodeName;
+            this.cacheDir = cacheDir;
+            this.cacheSince = cacheSince;
+            this.cacheMaxSizeBytes = cacheMaxSizeBytes;
+            this.lockFile = lockFile;
+            this.filtered = filtered;
+        }
+
+        @Override
+        public void onSuccess(StepContext bodyContext, Object result) {
+            finish(false);
+            context.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(StepContext bodyContext, Throwable t) {
+            finish(true);
+            context.onFailure(t);
+        }
+
+        /**
+         * Like the tear down of {@link ComposerBuildWrapper}, a failure here never changes the outcome of the block.
+         */
+        void finish(boolean failed) {
+            TaskListener listener;
+            try {
+                listener = context.get(TaskListener.class);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "No listener to finish the composer block with", e);
+                return;
+            }
+            try {
+                if (filtered != null) {
+                    filtered.finish(failed);
+                }
+                Node node = nodeName.isEmpty() ? Jenkins.getInstance() : Jenkins.getInstance().getNode(nodeName);
+                if (cacheDir == null || node == null || node.getChannel() == null) {
+                    return;
+                }
+                ComposerCache.Report report = new FilePath(node.getChannel(), cacheDir)
+                        .act(new ComposerCache.Maintain(cacheSince, cacheMaxSizeBytes)
+                                .withLockFiles(Collections.singletonList(lockFile)));
+                ComposerCache.record(report);
+                listener.getLogger().println(report);
+            } catch (IOException e) {
+                e.printStackTrace(listener.error(Messages.WithComposerStep_MaintenanceFailed()));
+            } catch (InterruptedException e) {
+                e.printStackTrace(listener.error(Messages.WithComposerStep_MaintenanceFailed()));
+            }
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "withComposer";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.WithComposerStep_DisplayName();
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        public ListBoxModel doFillInstallationItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (ComposerInstallation installation : ComposerPlugin.instance().getInstallations()) {
+                items.add(installation.getName());
+            }
+            return items;
+        }
+    }
+}
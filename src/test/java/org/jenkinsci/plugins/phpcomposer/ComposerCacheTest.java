@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void filesWrittenDuringTheBuildAreMisses() throws Exception {
+        File cache = tmp.newFolder("cache");
+        File old = write(cache, "files/acme/old/1.zip", 100);
+        assertTrue(old.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+
+        long since = new ComposerCache.Prepare().invoke(cache, null);
+        write(cache, "files/acme/new/2.zip", 50);
+
+        ComposerCache.Report report = new ComposerCache.Maintain(since - 1000, 0).invoke(cache, null);
+        assertEquals(1, report.misses);
+        assertEquals(50, report.missBytes);
+        assertEquals(2, report.files);
+        assertEquals(150, report.bytes);
+        assertEquals(0, report.evicted);
+    }
+
+    @Test
+    public void filesInUseAreNeverEvicted() throws Exception {
+        File cache = tmp.newFolder("cache");
+        write(cache, "files/acme/a/1.zip", 2048);
+        write(cache, "files/acme/b/2.zip", 2048);
+
+        ComposerCache.Report report = new ComposerCache.Maintain(System.currentTimeMillis(), 1).invoke(cache, null);
+        assertEquals(0, report.evicted);
+        assertEquals(2, report.files);
+    }
+
+    @Test
+    public void cachedDistsOfTheLockFileAreHitsAndTouched() throws Exception {
+        File cache = tmp.newFolder("cache");
+        String url = "https://packages.example.com/acme-lib.zip";
+        File dist = write(cache, DistPrefetcher.CACHE_FILES_DIR + "/"
+                + DistPrefetcher.cacheFile("acme/lib", url, "zip", "abc123"), 100);
+        long lastWeek = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(7);
+        assertTrue(dist.setLastModified(lastWeek));
+        File lock = tmp.newFile("composer.lock");
+        FileUtils.writeStringToFile(lock, Fixtures.lock(
+                Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", ""),
+                Fixtures.lockedPackage("acme/other", "1.0.0", "https://packages.example.com/acme-other.zip", "def456", "")), "UTF-8");
+
+        long since = new ComposerCache.Prepare().invoke(cache, null);
+        write(cache, DistPrefetcher.CACHE_FILES_DIR + "/"
+                + DistPrefetcher.cacheFile("acme/other", "https://packages.example.com/acme-other.zip", "zip", "def456"), 50);
+
+        ComposerCache.Report report = new ComposerCache.Maintain(since - 1000, 0)
+                .withLockFiles(Collections.singletonList(lock.getPath())).invoke(cache, null);
+        assertEquals(1, report.hits);
+        assertEquals(100, report.hitBytes);
+        assertEquals(1, report.misses);
+        assertEquals(50, report.missBytes);
+        assertTrue(dist.lastModified() > lastWeek);
+    }
+
+    @Test
+    public void leastRecentlyTouchedFilesAreEvictedFirst() throws Exception {
+        File cache = tmp.newFolder("cache");
+        long now = System.currentTimeMillis();
+        File older = write(cache, "files/acme/a/1.zip", 2048);
+        assertTrue(older.setLastModified(now - TimeUnit.DAYS.toMillis(2)));
+        File newer = write(cache, "files/acme/b/2.zip", 2048);
+        assertTrue(newer.setLastModified(now - TimeUnit.DAYS.toMillis(1)));
+
+        ComposerCache.Report report = new ComposerCache.Maintain(now, 3000).invoke(cache, null);
+        assertEquals(1, report.evicted);
+        assertFalse(older.exists());
+        assertTrue(newer.exists());
+    }
+
+    private static File write(File dir, String path, int size) throws Exception {
+        File file = new File(dir, path);
+        FileUtils.writeByteArrayToFile(file, new byte[size]);
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerInstallLockTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private long heartbeat;
+    private long poll;
+
+    @Before
+    public void shortenPeriods() {
+        heartbeat = ComposerInstallLock.HEARTBEAT_MILLIS;
+        poll = ComposerInstallLock.POLL_MILLIS;
+        ComposerInstallLock.HEARTBEAT_MILLIS = 50;
+        ComposerInstallLock.POLL_MILLIS = 5;
+    }
+
+    @After
+    public void restorePeriods() {
+        ComposerInstallLock.HEARTBEAT_MILLIS = heartbeat;
+        ComposerInstallLock.POLL_MILLIS = poll;
+    }
+
+    @Test
+    public void concurrentOwnersNeverOverlap() throws Exception {
+        final File lockFile = new File(tmp.getRoot(), "composer.lock");
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger staleLocks = new AtomicInteger();
+        int owners = 8;
+        final int rounds = 25;
+
+        ExecutorService executor = Executors.newFixedThreadPool(owners);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < owners; i++) {
+                // every owner stands for another controller sharing the node
+                final String owner = "controller" + i + "#session";
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int round = 0; round < rounds; round++) {
+                            if (ComposerInstallLock.acquire(lockFile, owner)) {
+                                staleLocks.incrementAndGet();
+                            }
+                            try {
+                                if (holders.incrementAndGet() > 1) {
+                                    overlaps.incrementAndGet();
+                                }
+                                Thread.sleep(1);
+                                holders.decrementAndGet();
+                            } finally {
+                                ComposerInstallLock.release(lockFile, owner);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(0, staleLocks.get());
+        assertFalse(lockFile.exists());
+    }
+
+    @Test
+    public void heldLockStaysFreshBeyondTheStaleWindow() throws Exception {
+        final File lockFile = new File(tmp.getRoot(), "composer.lock");
+        assertFalse(ComposerInstallLock.acquire(lockFile, "a#1"));
+        try {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> waiter = executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        boolean stale = ComposerInstallLock.acquire(lockFile, "b#1");
+                        ComposerInstallLock.release(lockFile, "b#1");
+                        return stale;
+                    }
+                });
+                // several stale windows elapse while the lock is held
+                Thread.sleep(20 * ComposerInstallLock.HEARTBEAT_MILLIS);
+                assertFalse(waiter.isDone());
+                assertEquals("a#1", FileUtils.readFileToString(lockFile, "UTF-8"));
+
+                ComposerInstallLock.release(lockFile, "a#1");
+                assertFalse(waiter.get(1, TimeUnit.MINUTES));
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            ComposerInstallLock.release(lockFile, "a#1");
+        }
+    }
+
+    @Test
+    public void abandonedLockIsTakenOver() throws Exception {
+        File lockFile = new File(tmp.getRoot(), "composer.lock");
+        FileUtils.writeStringToFile(lockFile, "gone#1", "UTF-8");
+        assertTrue(lockFile.setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)));
+
+        assertTrue(ComposerInstallLock.acquire(lockFile, "b#1"));
+        assertEquals("b#1", FileUtils.readFileToString(lockFile, "UTF-8"));
+        ComposerInstallLock.release(lockFile, "b#1");
+        assertFalse(lockFile.exists());
+    }
+
+    @Test
+    public void restartedControllerTakesOverItsOwnLock() throws Exception {
+        File lockFile = new File(tmp.getRoot(), "composer.lock");
+        FileUtils.writeStringToFile(lockFile, "controller#previous", "UTF-8");
+
+        assertTrue(ComposerInstallLock.acquire(lockFile, "controller#current"));
+        ComposerInstallLock.release(lockFile, "controller#current");
+    }
+}
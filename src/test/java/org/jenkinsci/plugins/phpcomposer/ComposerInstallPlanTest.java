@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+public class ComposerInstallPlanTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void vendorNeverDisappearsWhileSwapped() throws Exception {
+        assumeFalse(Functions.isWindows());
+        final File home = tmp.newFolder("home");
+        File tree = new File(home, ComposerInstallPlan.VENDOR_TREE_PREFIX + "1");
+        FileUtils.writeStringToFile(new File(tree, "autoload.php"), "1", "UTF-8");
+        Util.createSymlink(home, tree.getName(), ComposerInstallPlan.VENDOR_DIR, TaskListener.NULL);
+
+        final AtomicBoolean swapping = new AtomicBoolean(true);
+        final AtomicInteger missing = new AtomicInteger();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                File autoload = new File(home, ComposerInstallPlan.VENDOR_DIR + "/autoload.php");
+                while (swapping.get()) {
+                    if (!autoload.exists()) {
+                        missing.incrementAndGet();
+                    }
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 0; i < 50; i++) {
+                File staging = new File(home, ComposerInstallPlan.STAGING_DIR);
+                FileUtils.writeStringToFile(new File(staging, "vendor/autoload.php"), Integer.toString(i), "UTF-8");
+                ComposerInstallPlan.swapVendor(home, staging);
+                Util.deleteRecursive(staging);
+                // tree names are timestamps
+                Thread.sleep(2);
+            }
+        } finally {
+            swapping.set(false);
+            reader.join();
+        }
+
+        assertEquals(0, missing.get());
+        File vendor = new File(home, ComposerInstallPlan.VENDOR_DIR);
+        assertTrue(Util.isSymlink(vendor));
+        assertEquals("49", FileUtils.readFileToString(new File(vendor, "autoload.php"), "UTF-8"));
+        assertFalse(new File(home, ComposerInstallPlan.VENDOR_NEXT).exists());
+        // current and previous trees
+        assertEquals(2, home.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(ComposerInstallPlan.VENDOR_TREE_PREFIX);
+            }
+        }).length);
+    }
+
+    @Test
+    public void plainVendorDirectoryIsReplaced() throws Exception {
+        File home = tmp.newFolder("home");
+        FileUtils.writeStringToFile(new File(home, "vendor/autoload.php"), "old", "UTF-8");
+        File staging = new File(home, ComposerInstallPlan.STAGING_DIR);
+        FileUtils.writeStringToFile(new File(staging, "vendor/autoload.php"), "new", "UTF-8");
+        FileUtils.writeStringToFile(new File(staging, ComposerInstallPlan.COMPOSER_LOCK), "{}", "UTF-8");
+
+        ComposerInstallPlan.swapVendor(home, staging);
+
+        assertEquals("new", FileUtils.readFileToString(new File(home, "vendor/autoload.php"), "UTF-8"));
+        assertEquals("{}", FileUtils.readFileToString(new File(home, ComposerInstallPlan.COMPOSER_LOCK), "UTF-8"));
+    }
+
+    @Test
+    public void durationsOfRepeatedPhasesAddUp() {
+        ComposerInstallPlan.Result result = new ComposerInstallPlan.Result();
+        long now = System.currentTimeMillis();
+        result.record(ComposerMetrics.Phase.GLOBAL_REQUIRE, now - 100, true);
+        result.record(ComposerMetrics.Phase.GLOBAL_REQUIRE, now - 50, false);
+
+        assertTrue(result.durations.get(ComposerMetrics.Phase.GLOBAL_REQUIRE) >= 150);
+        assertEquals(1, result.failures.size());
+    }
+
+    @Test
+    public void addedDependenciesAreRequired() {
+        Map<String, String> installed = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5");
+        Map<String, String> configured = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5 phpstan/phpstan");
+        assertEquals(Collections.singletonList("phpstan/phpstan"), ComposerInstallPlan.toRequire(installed, configured));
+        assertTrue(ComposerInstallPlan.toRemove(installed, configured).isEmpty());
+    }
+
+    @Test
+    public void droppedDependenciesAreRemoved() {
+        Map<String, String> installed = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5 phpstan/phpstan");
+        Map<String, String> configured = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5");
+        assertEquals(Collections.singletonList("phpstan/phpstan"), ComposerInstallPlan.toRemove(installed, configured));
+        assertTrue(ComposerInstallPlan.toRequire(installed, configured).isEmpty());
+    }
+
+    @Test
+    public void changedConstraintsAreRequiredAgain() {
+        Map<String, String> installed = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5 phpstan/phpstan:1.*");
+        Map<String, String> configured = ComposerInstaller.parseDependencies("phpunit/phpunit:^10 phpstan/phpstan");
+        assertEquals(Arrays.asList("phpstan/phpstan", "phpunit/phpunit:^10"), ComposerInstallPlan.toRequire(installed, configured));
+        assertTrue(ComposerInstallPlan.toRemove(installed, configured).isEmpty());
+    }
+
+    @Test
+    public void unchangedDependenciesNeedNoComposerCall() {
+        Map<String, String> installed = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5 phpstan/phpstan");
+        Map<String, String> configured = ComposerInstaller.parseDependencies(" phpstan/phpstan\nPHPUnit/PHPUnit=^9.5 ");
+        assertTrue(ComposerInstallPlan.toRequire(installed, configured).isEmpty());
+        assertTrue(ComposerInstallPlan.toRemove(installed, configured).isEmpty());
+    }
+}
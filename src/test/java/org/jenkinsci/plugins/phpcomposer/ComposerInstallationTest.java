@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.tools.ToolProperty;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerInstallationTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void cacheBudgetDefaultsForConfigurationsSavedWithoutIt() {
+        ComposerInstallation installation = (ComposerInstallation) Jenkins.XSTREAM2.fromXML(
+                "<org.jenkinsci.plugins.phpcomposer.ComposerInstallation>"
+                        + "<name>composer</name><home>/opt/composer</home>"
+                        + "</org.jenkinsci.plugins.phpcomposer.ComposerInstallation>");
+        assertEquals(ComposerInstallation.DEFAULT_CACHE_MAX_SIZE_MB, installation.getCacheMaxSizeMb());
+    }
+
+    @Test
+    public void disabledCacheBudgetSurvivesReload() {
+        ComposerInstallation installation = new ComposerInstallation("composer", "/opt/composer", Collections.<ToolProperty<?>>emptyList());
+        installation.setCacheDir("/var/cache/composer");
+        installation.setCacheMaxSizeMb(0);
+
+        ComposerInstallation reloaded = (ComposerInstallation) Jenkins.XSTREAM2.fromXML(Jenkins.XSTREAM2.toXML(installation));
+        assertEquals(0, reloaded.getCacheMaxSizeMb());
+
+        EnvVars env = new EnvVars();
+        reloaded.buildEnvVars(env);
+        assertEquals("/var/cache/composer", env.get("COMPOSER_CACHE_DIR"));
+        assertNull(env.get("COMPOSER_CACHE_FILES_MAXSIZE"));
+    }
+
+    @Test
+    public void copiesKeepTheCacheBudget() {
+        ComposerInstallation installation = new ComposerInstallation("composer", "${TOOLS}/composer", Collections.<ToolProperty<?>>emptyList());
+        installation.setCacheDir("/var/cache/composer");
+        installation.setCacheMaxSizeMb(256);
+
+        EnvVars environment = new EnvVars("TOOLS", "/opt");
+        ComposerInstallation expanded = installation.forEnvironment(environment);
+        assertEquals("/opt/composer", expanded.getHome());
+        assertEquals(256, expanded.getCacheMaxSizeMb());
+
+        EnvVars env = new EnvVars();
+        expanded.buildEnvVars(env);
+        assertEquals("256MiB", env.get("COMPOSER_CACHE_FILES_MAXSIZE"));
+    }
+
+    @Test
+    public void installationsAreSavedBeforeTheyArePublished() throws Exception {
+        ComposerInstallation installation = new ComposerInstallation("saved", "/opt/composer", Collections.<ToolProperty<?>>emptyList());
+        ComposerPlugin.instance().setInstallations(new ComposerInstallation[]{installation});
+
+        String saved = FileUtils.readFileToString(new File(j.jenkins.getRootDir(), "php-composer.xml"), "UTF-8");
+        assertTrue(saved.contains("<name>saved</name>"));
+        assertEquals(installation, ComposerPlugin.instance().findInstallationByName("saved"));
+    }
+}
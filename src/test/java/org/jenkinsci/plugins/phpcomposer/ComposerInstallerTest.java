@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.model.TaskListener;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolProperty;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerInstallerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void constraintFollowsColonOrEquals() {
+        Map<String, String> parsed = ComposerInstaller.parseDependencies("phpunit/phpunit:^9.5 squizlabs/php_codesniffer=3.*");
+        assertEquals("^9.5", parsed.get("phpunit/phpunit"));
+        assertEquals("3.*", parsed.get("squizlabs/php_codesniffer"));
+        assertEquals(2, parsed.size());
+    }
+
+    @Test
+    public void bareNameHasNoConstraint() {
+        Map<String, String> parsed = ComposerInstaller.parseDependencies("phpstan/phpstan");
+        assertEquals("", parsed.get("phpstan/phpstan"));
+        assertEquals(1, parsed.size());
+    }
+
+    @Test
+    public void namesAreCaseInsensitive() {
+        Map<String, String> parsed = ComposerInstaller.parseDependencies("PHPUnit/PHPUnit:^9.5 phpunit/phpunit:^10");
+        // the last one wins, as for composer
+        assertEquals("^10", parsed.get("phpunit/phpunit"));
+        assertEquals(1, parsed.size());
+    }
+
+    @Test
+    public void spacingDoesNotMatter() {
+        Map<String, String> parsed = ComposerInstaller.parseDependencies("  phpunit/phpunit:^9.5 \n\t phpstan/phpstan  ");
+        assertEquals(ComposerInstaller.parseDependencies("phpstan/phpstan phpunit/phpunit:^9.5"), parsed);
+        assertEquals(2, parsed.size());
+        assertTrue(ComposerInstaller.parseDependencies("   ").isEmpty());
+        assertTrue(ComposerInstaller.parseDependencies(null).isEmpty());
+    }
+
+    @Test
+    public void refreshLeavesNodesWithoutTheInstallationAlone() throws Exception {
+        ComposerInstaller installer = new ComposerInstaller(null, "", 72);
+        ComposerInstallation tool = new ComposerInstallation("absent", null,
+                Collections.<ToolProperty<?>>singletonList(new InstallSourceProperty(Collections.singletonList(installer))));
+
+        assertFalse(installer.refresh(tool, j.jenkins, TaskListener.NULL));
+        // not even the lock file next to the installation directory
+        assertFalse(new File(j.jenkins.getRootDir(), "tools").exists());
+    }
+}
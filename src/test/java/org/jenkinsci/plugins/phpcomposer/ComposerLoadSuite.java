@@ -0,0 +1,247 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.ParametersAction;
+import hudson.model.StringParameterValue;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.tasks.Shell;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolProperty;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Load suite for {@link ComposerBuildWrapper}: concurrent freestyle builds over several installations and agents,
+ * getcomposer.org being replaced by a {@link FixtureServer} and php by a shell script. Only runs in the benchmark profile,
+ * sizes are set with the {@code composer.load.*} system properties.
+ * Results are printed and written to target/composer-load-report.properties so runs of different versions can be compared.
+ */
+public class ComposerLoadSuite {
+
+    private static final int AGENTS = Integer.getInteger("composer.load.agents", 2);
+    private static final int INSTALLATIONS = Integer.getInteger("composer.load.installations", 2);
+    private static final int EXECUTORS = Integer.getInteger("composer.load.executors", 4);
+    // at least one build per executor, so every executor of a node races for the first install
+    private static final int BUILDS = Math.max(EXECUTORS, Integer.getInteger("composer.load.builds", 8));
+    private static final String REPORT = System.getProperty("composer.load.report", "target/composer-load-report.properties");
+
+    private static final String INSTALL_URL = ComposerInstaller.class.getName() + ".installUrl";
+    private static final String SIGNATURE_URL = ComposerInstaller.class.getName() + ".signatureUrl";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public FixtureServer server = new FixtureServer();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private int scheduled;
+
+    @Test
+    public void concurrentBuilds() throws Exception {
+        assumeFalse(Functions.isWindows());
+        byte[] installer = "<?php // stand-in for the composer installer\n".getBytes("UTF-8");
+        System.setProperty(INSTALL_URL, server.serve("/installer", installer));
+        System.setProperty(SIGNATURE_URL, server.serve("/installer.sig", (sha384(installer) + "  installer\n").getBytes("UTF-8")));
+        try {
+            run();
+        } finally {
+            System.clearProperty(INSTALL_URL);
+            System.clearProperty(SIGNATURE_URL);
+        }
+    }
+
+    private void run() throws Exception {
+        File calls = tmp.newFile("php-calls");
+        File php = fakePhp(calls);
+
+        ComposerInstallation[] installations = new ComposerInstallation[INSTALLATIONS];
+        for (int i = 0; i < INSTALLATIONS; i++) {
+            ComposerInstaller installer = new ComposerInstaller(null, "", 72);
+            installations[i] = new ComposerInstallation("composer" + i, null,
+                    Collections.<ToolProperty<?>>singletonList(new InstallSourceProperty(Collections.singletonList(installer))));
+            installations[i].setPhpBinary(php.getPath());
+        }
+        // bypasses the descriptor, which would pre-warm every node while the suite measures
+        ComposerPlugin.instance().setInstallations(installations);
+
+        List<DumbSlave> agents = new ArrayList<DumbSlave>();
+        for (int i = 0; i < AGENTS; i++) {
+            DumbSlave agent = new DumbSlave("agent" + i, "", j.createTmpDir().getPath(), Integer.toString(EXECUTORS),
+                    Node.Mode.NORMAL, "agent" + i, j.createComputerLauncher(null), RetentionStrategy.NOOP,
+                    Collections.<NodeProperty<?>>emptyList());
+            j.jenkins.addNode(agent);
+            agent.toComputer().connect(false).get();
+            agents.add(agent);
+        }
+
+        List<FreeStyleProject> wrapped = new ArrayList<FreeStyleProject>();
+        List<FreeStyleProject> plain = new ArrayList<FreeStyleProject>();
+        for (DumbSlave agent : agents) {
+            for (ComposerInstallation installation : installations) {
+                FreeStyleProject project = project(agent, "composer --version");
+                project.getBuildWrappersList().add(new ComposerBuildWrapper(installation.getName()));
+                wrapped.add(project);
+            }
+            plain.add(project(agent, "true"));
+        }
+
+        Map<String, Object> report = new TreeMap<String, Object>();
+        report.put("agents", AGENTS);
+        report.put("installations", INSTALLATIONS);
+        report.put("executors", EXECUTORS);
+        report.put("builds", BUILDS);
+
+        // all executors of every node ask for every installation at once: they must wait for a single installer run
+        Phase cold = run(wrapped, BUILDS);
+        report.put("cold.meanMillis", cold.mean());
+        report.put("cold.maxMillis", cold.max);
+        int installerRuns = countInstallerRuns(calls);
+        report.put("installer.runs", installerRuns);
+        report.put("installer.expected", AGENTS * INSTALLATIONS);
+
+        Phase baseline = run(plain, BUILDS);
+        report.put("baseline.meanMillis", baseline.mean());
+
+        Phase warm = run(wrapped, BUILDS);
+        report.put("warm.meanMillis", warm.mean());
+        report.put("warm.maxMillis", warm.max);
+        report.put("warm.overheadMillis", warm.mean() - baseline.mean());
+        report.put("warm.buildsPerMinute", warm.builds * 60000L / Math.max(1, warm.elapsed));
+        report.put("php.calls", countLines(calls));
+
+        write(report);
+        assertEquals(AGENTS * INSTALLATIONS, installerRuns);
+    }
+
+    private FreeStyleProject project(DumbSlave agent, String command) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedNode(agent);
+        project.setConcurrentBuild(true);
+        project.getBuildersList().add(new Shell(command));
+        return project;
+    }
+
+    /**
+     * Schedules all builds at once and waits for them.
+     */
+    private Phase run(List<FreeStyleProject> projects, int buildsPerProject) throws Exception {
+        long start = System.currentTimeMillis();
+        List<QueueTaskFuture<FreeStyleBuild>> futures = new ArrayList<QueueTaskFuture<FreeStyleBuild>>();
+        for (int i = 0; i < buildsPerProject; i++) {
+            for (FreeStyleProject project : projects) {
+                // distinct parameters keep the queue from folding builds of the same project together
+                futures.add(project.scheduleBuild2(0, new Cause.RemoteCause("127.0.0.1", "load suite"),
+                        new ParametersAction(new StringParameterValue("LOAD_RUN", Integer.toString(scheduled++)))));
+            }
+        }
+        Phase phase = new Phase();
+        for (QueueTaskFuture<FreeStyleBuild> future : futures) {
+            FreeStyleBuild build = j.assertBuildStatusSuccess(future);
+            phase.add(build.getDuration());
+        }
+        phase.elapsed = System.currentTimeMillis() - start;
+        return phase;
+    }
+
+    private File fakePhp(File calls) throws Exception {
+        File php = tmp.newFile("php");
+        FileUtils.writeStringToFile(php, "#!/bin/sh\n"
+                + "echo \"$*\" >> '" + calls.getPath() + "'\n"
+                + "for arg in \"$@\"; do\n"
+                + "  case \"$arg\" in\n"
+                + "    --install-dir=*) dir=\"${arg#--install-dir=}\" ;;\n"
+                + "    --filename=*) name=\"${arg#--filename=}\" ;;\n"
+                + "  esac\n"
+                + "done\n"
+                + "if [ -n \"$dir\" ]; then\n"
+                + "  printf '#!/bin/sh\\necho Composer version 2.0.0\\n' > \"$dir/$name\"\n"
+                + "  chmod +x \"$dir/$name\"\n"
+                + "else\n"
+                + "  echo Composer version 2.0.0\n"
+                + "fi\n", "UTF-8");
+        php.setExecutable(true);
+        return php;
+    }
+
+    private static int countInstallerRuns(File calls) throws Exception {
+        int runs = 0;
+        for (String line : FileUtils.readLines(calls, "UTF-8")) {
+            if (line.contains("--install-dir=")) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    private static int countLines(File file) throws Exception {
+        return FileUtils.readLines(file, "UTF-8").size();
+    }
+
+    private static void write(Map<String, Object> report) throws Exception {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Object> entry : report.entrySet()) {
+            System.out.println("composer.load." + entry.getKey() + "=" + entry.getValue());
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        File file = new File(REPORT);
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + dir);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "PHP Composer plugin load suite");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String sha384(byte[] content) throws Exception {
+        return Util.toHexString(MessageDigest.getInstance("SHA-384").digest(content));
+    }
+
+    private static final class Phase {
+        int builds;
+        long total;
+        long max;
+        long elapsed;
+
+        void add(long duration) {
+            builds++;
+            total += duration;
+            max = Math.max(max, duration);
+        }
+
+        long mean() {
+            return builds == 0 ? 0 : total / builds;
+        }
+    }
+}
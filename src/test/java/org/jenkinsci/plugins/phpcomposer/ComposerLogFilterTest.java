@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerLogFilterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void composerPackageLinesAreSummarized() throws Exception {
+        String log = filter(10,
+                "+ composer install\n",
+                "Installing dependencies from lock file (including require-dev)\n",
+                "Package operations: 2 installs, 0 updates, 0 removals\n",
+                "  0/2 [>---------------------------]   0%\r  2/2 [============================] 100%\n",
+                "  - Installing acme/a (1.0.0): Extracting archive\n",
+                "  - Installing acme/b (2.0.0): Extracting archive\n",
+                "Generating autoload files\n");
+
+        assertFalse(log.contains("acme/a"));
+        assertFalse(log.contains("[===="));
+        assertTrue(log.contains("Installing 2"));
+        assertTrue(log.contains("Package operations: 2 installs"));
+        assertTrue(log.contains("Generating autoload files"));
+    }
+
+    @Test
+    public void outputOfOtherToolsGoesThrough() throws Exception {
+        String phpunit = "...............................................................  63 / 126 ( 50%)\n";
+        String redraw = "Compiling 1/3\rCompiling 3/3\n";
+        String log = filter(10,
+                "+ ./vendor/bin/phpunit\n",
+                phpunit,
+                "  - Installing fixtures\n",
+                redraw);
+
+        assertEquals("+ ./vendor/bin/phpunit\n" + phpunit + "  - Installing fixtures\n" + redraw, log);
+    }
+
+    @Test
+    public void nextShellCommandEndsTheSection() throws Exception {
+        String phpunit = ".....  5 / 10 ( 50%)\n";
+        String log = filter(10,
+                "Loading composer repositories with package information\n",
+                "Updating dependencies\n",
+                "  - Locking acme/a (1.0.0)\n",
+                "Your requirements could not be resolved to an installable set of packages.\n",
+                "+ ./vendor/bin/phpunit\n",
+                phpunit);
+
+        assertFalse(log.contains("acme/a"));
+        assertTrue(log.endsWith("+ ./vendor/bin/phpunit\n" + phpunit));
+    }
+
+    @Test
+    public void collapsedLinesAreDumpedOnDemand() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ComposerLogFilter filter = new ComposerLogFilter(out, UTF_8, 1);
+        filter.write("Updating dependencies\n  - Locking acme/a (1.0.0)\n  - Locking acme/b (1.0.0)\n".getBytes(UTF_8));
+        filter.dumpSuppressed();
+
+        String log = new String(out.toByteArray(), UTF_8);
+        assertFalse(log.contains("acme/a"));
+        assertTrue(log.endsWith("  - Locking acme/b (1.0.0)\n"));
+    }
+
+    private static String filter(int bufferLines, String... lines) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ComposerLogFilter filter = new ComposerLogFilter(out, UTF_8, bufferLines);
+        for (String line : lines) {
+            filter.write(line.getBytes(UTF_8));
+        }
+        filter.close();
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ComposerMirrorTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public FixtureServer server = new FixtureServer();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String DOWNLOAD = "/download/2.0.0/composer.phar";
+
+    @Test
+    public void latestReleaseIsDownloadedOnceAndVerified() throws Exception {
+        byte[] phar = "<?php // composer 2.0.0\n".getBytes("UTF-8");
+        publish(phar, sha256(phar));
+        ComposerMirror mirror = new ComposerMirror(tmp.newFolder("mirror"), server.url(""));
+
+        ComposerMirror.Release release = mirror.latest(TaskListener.NULL);
+        assertEquals("2.0.0", release.getVersion());
+        assertEquals(sha256(phar), release.getSha256());
+        assertArrayEquals(phar, FileUtils.readFileToByteArray(release.getPhar()));
+
+        assertEquals(release.getPhar(), mirror.release("2.0.0", TaskListener.NULL).getPhar());
+        assertEquals(1, server.requests(DOWNLOAD));
+    }
+
+    @Test
+    public void releaseNotMatchingItsChecksumIsRejected() throws Exception {
+        byte[] phar = "<?php // composer 2.0.0\n".getBytes("UTF-8");
+        publish(phar, sha256("tampered".getBytes("UTF-8")));
+        File root = tmp.newFolder("mirror");
+        ComposerMirror mirror = new ComposerMirror(root, server.url(""));
+
+        try {
+            mirror.release("2.0.0", TaskListener.NULL);
+            fail("a phar not matching its checksum was mirrored");
+        } catch (IOException expected) {
+            // rejected
+        }
+        assertFalse(new File(root, "2.0.0/composer.phar").exists());
+        assertFalse(new File(root, "2.0.0/composer.phar.sha256").exists());
+    }
+
+    @Test
+    public void newestMirroredReleaseIsUsedWhenOffline() throws Exception {
+        byte[] phar = "<?php // composer 2.0.0\n".getBytes("UTF-8");
+        publish(phar, sha256(phar));
+        File root = tmp.newFolder("mirror");
+        new ComposerMirror(root, server.url("")).latest(TaskListener.NULL);
+        String url = server.url("");
+        server.stop();
+
+        ComposerMirror.Release release = new ComposerMirror(root, url).latest(TaskListener.NULL);
+        assertEquals("2.0.0", release.getVersion());
+        assertEquals(sha256(phar), release.getSha256());
+    }
+
+    @Test
+    public void sourceIsVerifiedWhileReceived() throws Exception {
+        byte[] phar = "<?php // composer 2.0.0\n".getBytes("UTF-8");
+        publish(phar, sha256(phar));
+        ComposerMirror.Release release = new ComposerMirror(tmp.newFolder("mirror"), server.url(""))
+                .latest(TaskListener.NULL);
+        File home = tmp.newFolder("home");
+
+        assertEquals(phar.length, ComposerMirror.receive(release.getSource().open(), release.getSha256(), home, "composer"));
+        assertArrayEquals(phar, FileUtils.readFileToByteArray(new File(home, "composer")));
+        assertEquals(release.getSha256(), FileUtils.readFileToString(new File(home, ComposerMirror.markerName("composer")), "UTF-8"));
+
+        try {
+            ComposerMirror.receive(new ByteArrayInputStream("corrupted".getBytes("UTF-8")), release.getSha256(), home, "composer");
+            fail("a corrupted transfer was installed");
+        } catch (IOException expected) {
+            // the working composer is kept
+        }
+        assertArrayEquals(phar, FileUtils.readFileToByteArray(new File(home, "composer")));
+        assertTrue(new File(home, "composer").canExecute());
+    }
+
+    private void publish(byte[] phar, String sha256) throws Exception {
+        server.serve("/versions", "{\"stable\":[{\"path\":\"/download/2.0.0/composer.phar\",\"version\":\"2.0.0\"}]}".getBytes("UTF-8"));
+        server.serve(DOWNLOAD, phar);
+        server.serve(DOWNLOAD + ".sha256sum", (sha256 + "  composer.phar\n").getBytes("UTF-8"));
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import hudson.tools.ToolProperty;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerPrewarmTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void failingInstallationDoesNotStopTheOthers() throws Exception {
+        ComposerInstallation failing = new ComposerInstallation("failing", null,
+                Collections.<ToolProperty<?>>singletonList(new InstallSourceProperty(
+                        Collections.<ToolInstaller>singletonList(new FailingInstaller()))));
+        ComposerInstallation preinstalled = new ComposerInstallation("preinstalled", "/opt/composer",
+                Collections.<ToolProperty<?>>emptyList());
+        ComposerPlugin.instance().setInstallations(new ComposerInstallation[]{failing, preinstalled});
+
+        ComposerPrewarm prewarm = ComposerPrewarm.start(null);
+        prewarm.await();
+
+        ComposerPrewarm.NodeProgress progress = prewarm.getNodes().get(0);
+        assertEquals(ComposerPrewarm.Status.FAILED, progress.getStatus());
+        assertEquals(2, progress.getTotal());
+        assertEquals(1, progress.getInstalled());
+        assertTrue(progress.getMessage(), progress.getMessage().startsWith("failing: java.io.IOException: unreachable"));
+    }
+
+    public static class FailingInstaller extends ToolInstaller {
+
+        public FailingInstaller() {
+            super(null);
+        }
+
+        @Override
+        public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException {
+            throw new IOException("unreachable");
+        }
+
+        @TestExtension
+        public static class DescriptorImpl extends ToolInstallerDescriptor<FailingInstaller> {
+            @Override
+            public String getDisplayName() {
+                return "Failing installer";
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+public class ComposerProjectsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void everyProjectGetsItsBinVariable() throws Exception {
+        File workspace = tmp.newFolder("workspace");
+        project(workspace, "");
+        project(workspace, "packages/api");
+        project(workspace, "packages/web-app");
+
+        ComposerProjects projects = ComposerProjects.find(new FilePath(workspace), "composer.json,packages/*/composer.json");
+        Map<String, String> variables = projects.getBinVariables(":");
+
+        String root = new File(workspace, "vendor/bin").getPath();
+        String api = new File(workspace, "packages/api/vendor/bin").getPath();
+        String web = new File(workspace, "packages/web-app/vendor/bin").getPath();
+        assertEquals(root, variables.get("COMPOSER_PROJECT_BIN_ROOT"));
+        assertEquals(api, variables.get("COMPOSER_PROJECT_BIN_PACKAGES_API"));
+        assertEquals(web, variables.get("COMPOSER_PROJECT_BIN_PACKAGES_WEB_APP"));
+        assertEquals(root + ":" + api + ":" + web, variables.get(ComposerProjects.BINS_VARIABLE));
+        assertEquals(4, variables.size());
+    }
+
+    @Test
+    public void singleProjectWorkspaceExportsNothing() throws Exception {
+        File workspace = tmp.newFolder("workspace");
+        ComposerProjects projects = ComposerProjects.find(new FilePath(workspace), "packages/*/composer.json");
+        assertTrue(projects.getBinVariables(":").isEmpty());
+    }
+
+    @Test
+    public void copiedVendorKeepsDotfilesAndLinks() throws Exception {
+        assumeFalse(Functions.isWindows());
+        File vendor = tmp.newFolder("leader", "vendor");
+        FileUtils.writeStringToFile(new File(vendor, "acme/lib/.gitattributes"), "* text=auto", "UTF-8");
+        FileUtils.writeStringToFile(new File(vendor, "acme/lib/.git/HEAD"), "ref: refs/heads/main", "UTF-8");
+        FileUtils.writeStringToFile(new File(vendor, "acme/lib/bin/tool"), "#!/bin/sh", "UTF-8");
+        assertTrue(new File(vendor, "acme/lib/empty").mkdirs());
+        assertTrue(new File(vendor, "bin").mkdirs());
+        Util.createSymlink(new File(vendor, "bin"), "../acme/lib/bin/tool", "tool", TaskListener.NULL);
+
+        File target = new File(tmp.newFolder("follower"), "vendor");
+        FileUtils.writeStringToFile(new File(target, "stale/file"), "stale", "UTF-8");
+        ComposerProjects.copyVendor(new FilePath(vendor), new FilePath(target));
+
+        assertTrue(new File(target, "acme/lib/.gitattributes").isFile());
+        assertTrue(new File(target, "acme/lib/.git/HEAD").isFile());
+        assertTrue(new File(target, "acme/lib/empty").isDirectory());
+        assertEquals("../acme/lib/bin/tool", Util.resolveSymlink(new File(target, "bin/tool")));
+        assertFalse(new File(target, "stale").exists());
+    }
+
+    private static void project(File workspace, String path) throws Exception {
+        FileUtils.writeStringToFile(new File(new File(workspace, path), ComposerProjects.COMPOSER_JSON), "{}", "UTF-8");
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ComposerRepositoryTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public FixtureServer server = new FixtureServer();
+
+    @Test
+    public void fedPackagesAreServedWithTheirDist() throws Exception {
+        byte[] dist = Fixtures.dist("acme/lib");
+        String url = server.serve("/dists/acme-lib.zip", dist);
+        ComposerRepository repository = ComposerRepository.get();
+        feed(repository, Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(dist)));
+        awaitStored(repository, "acme/lib/1.0.0.json");
+
+        String file = DistPrefetcher.cacheFile("acme/lib", url, "zip", "abc123");
+        InputStream in = repository.getDistSource(null).open(file);
+        try {
+            assertArrayEquals(dist, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+
+        HttpURLConnection archive = open(ComposerRepository.DISTS_DIR + "/" + file);
+        assertEquals(200, archive.getResponseCode());
+        assertEquals(dist.length, IOUtils.toByteArray(archive.getInputStream()).length);
+        assertEquals(404, open("packages.json").getResponseCode());
+    }
+
+    @Test
+    public void unsafeDistsAreNeverDownloaded() throws Exception {
+        byte[] dist = Fixtures.dist("acme/lib");
+        String url = server.serve("/dists/acme-lib.zip", dist);
+        JSONObject type = Fixtures.lockedPackage("acme/type", "1.0.0", url, "abc123", Fixtures.sha1(dist));
+        type.getJSONObject("dist").put("type", "../zip");
+        ComposerRepository repository = ComposerRepository.get();
+        feed(repository,
+                Fixtures.lockedPackage("acme/file", "1.0.0", "file:///etc/passwd", "abc123", ""),
+                Fixtures.lockedPackage("acme/reference", "1.0.0", url, "../../../config", Fixtures.sha1(dist)),
+                type,
+                Fixtures.lockedPackage("../acme", "1.0.0", url, "abc123", Fixtures.sha1(dist)));
+        feed(repository, Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(dist)));
+        awaitStored(repository, "acme/lib/1.0.0.json");
+
+        assertEquals(1, server.requests("/dists/acme-lib.zip"));
+        assertFalse(new File(repository.getRoot(), ComposerRepository.PACKAGES_DIR + "/acme/file").exists());
+        assertFalse(new File(repository.getRoot(), ComposerRepository.PACKAGES_DIR + "/acme/reference").exists());
+        assertFalse(new File(repository.getRoot(), ComposerRepository.PACKAGES_DIR + "/acme/type").exists());
+        assertTrue(open("dists/acme/lib/../../../config.xml").getResponseCode() != 200);
+    }
+
+    @Test
+    public void onlyAllowedHostsAreDownloadedFrom() throws Exception {
+        String property = ComposerRepository.class.getName() + ".allowedHosts";
+        assertTrue(ComposerRepository.isAllowed("https://api.github.com/repos/acme/lib/zipball/abc123"));
+        assertFalse(ComposerRepository.isAllowed("ftp://api.github.com/acme.zip"));
+        System.setProperty(property, "api.github.com, packages.example.com");
+        try {
+            assertTrue(ComposerRepository.isAllowed("https://packages.example.com/acme.zip"));
+            assertFalse(ComposerRepository.isAllowed("http://127.0.0.1:8080/acme.zip"));
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void packagesNotServedLatelyAreEvicted() throws Exception {
+        byte[] dist = Fixtures.dist("acme/lib");
+        String url = server.serve("/dists/acme-lib.zip", dist);
+        byte[] other = Fixtures.dist("acme/other");
+        String otherUrl = server.serve("/dists/acme-other.zip", other);
+        ComposerRepository repository = ComposerRepository.get();
+        feed(repository, Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(dist)),
+                Fixtures.lockedPackage("acme/other", "1.0.0", otherUrl, "def456", Fixtures.sha1(other)));
+        File stale = awaitStored(repository, "acme/lib/1.0.0.json");
+        File kept = awaitStored(repository, "acme/other/1.0.0.json");
+
+        String path = JSONObject.fromObject(FileUtils.readFileToString(stale, "UTF-8"))
+                .getJSONObject("dist").getString("url");
+        File archive = new File(repository.getRoot(), path);
+        assertTrue(archive.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(100)));
+
+        assertEquals(1, repository.evict(TimeUnit.DAYS.toMillis(ComposerRepository.DEFAULT_MAX_IDLE_DAYS)));
+        assertFalse(stale.exists());
+        assertFalse(archive.exists());
+        assertTrue(kept.exists());
+        try {
+            repository.getDistSource(null).open(path.substring(ComposerRepository.DISTS_DIR.length() + 1)).close();
+            fail("an evicted dist was served");
+        } catch (FileNotFoundException expected) {
+            // evicted
+        }
+    }
+
+    private static void feed(ComposerRepository repository, JSONObject... packages) throws Exception {
+        repository.feed(new ByteArrayInputStream(Fixtures.lock(packages).getBytes("UTF-8")));
+    }
+
+    private static File awaitStored(ComposerRepository repository, String metadata) throws InterruptedException {
+        File file = new File(new File(repository.getRoot(), ComposerRepository.PACKAGES_DIR), metadata);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!file.exists()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(metadata + " was not stored");
+            }
+            Thread.sleep(50);
+        }
+        return file;
+    }
+
+    private HttpURLConnection open(String path) throws Exception {
+        return (HttpURLConnection) new URL(j.getURL(), ComposerRepository.URL_NAME + "/" + path).openConnection();
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ComposerStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void linksReleasesByVersion() throws Exception {
+        ComposerStore store = new ComposerStore(tmp.newFolder("store"));
+        File exe = write(tmp.newFolder("a"), "release 2.0.0");
+        store.adopt(exe, "2.0.0");
+
+        File other = new File(tmp.newFolder("b"), "composer");
+        assertTrue(store.linkVersion("2.0.0", other));
+        assertEquals("release 2.0.0", FileUtils.readFileToString(other, "UTF-8"));
+        assertFalse(store.linkVersion("1.0.0", other));
+    }
+
+    @Test
+    public void concurrentInstallationsShareTheStore() throws Exception {
+        final ComposerStore store = new ComposerStore(tmp.newFolder("store"));
+        int installations = 8;
+        final int rounds = 30;
+
+        ExecutorService executor = Executors.newFixedThreadPool(installations);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < installations; i++) {
+                final File home = tmp.newFolder("home" + i);
+                final int installation = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int round = 0; round < rounds; round++) {
+                            String version = "2.0." + (round % 3);
+                            File exe = new File(home, "composer");
+                            if (!store.linkVersion(version, exe)) {
+                                write(home, "release " + version);
+                                store.adopt(exe, version);
+                            }
+                            assertEquals("release " + version, FileUtils.readFileToString(exe, "UTF-8"));
+
+                            // self-updated phars of unknown release are pruned once nothing links them
+                            write(home, "self-update " + installation + "." + round);
+                            store.adopt(exe, null);
+                            assertEquals("self-update " + installation + "." + round, FileUtils.readFileToString(exe, "UTF-8"));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Collection<File> leftovers = FileUtils.listFiles(tmp.getRoot(), new String[]{"link"}, true);
+        assertTrue(leftovers.toString(), leftovers.isEmpty());
+        for (int round = 0; round < 3; round++) {
+            File exe = new File(tmp.getRoot(), "check" + round);
+            assertTrue(store.linkVersion("2.0." + round, exe));
+            assertEquals("release 2.0." + round, FileUtils.readFileToString(exe, "UTF-8"));
+        }
+    }
+
+    private static File write(File home, String content) throws Exception {
+        // a new file, as composer writes it, never the stored copy through a link
+        File exe = new File(home, "composer");
+        File tmp = new File(home, "composer.new");
+        FileUtils.writeStringToFile(tmp, content, "UTF-8");
+        assertTrue(tmp.renameTo(exe));
+        return exe;
+    }
+}
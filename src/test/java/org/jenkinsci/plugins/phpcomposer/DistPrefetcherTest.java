@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DistPrefetcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public FixtureServer server = new FixtureServer();
+
+    @Test
+    public void distsAreStoredUnderTheComposerCacheKey() throws Exception {
+        byte[] lib = Fixtures.dist("acme/lib");
+        String url = server.serve("/dists/acme-lib.zip", lib);
+        File lock = tmp.newFile("composer.lock");
+        FileUtils.writeStringToFile(lock, Fixtures.lock(
+                Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(lib))), "UTF-8");
+        File cache = tmp.newFolder("cache");
+
+        new DistPrefetcher(cache.getPath(), 2).invoke(lock, null);
+
+        File cached = new File(cache, "files/acme/lib/" + Fixtures.sha1(url.getBytes("UTF-8")) + ".zip");
+        assertArrayEquals(lib, FileUtils.readFileToByteArray(cached));
+
+        // cached dists are not downloaded again
+        new DistPrefetcher(cache.getPath(), 2).invoke(lock, null);
+        assertEquals(1, server.requests("/dists/acme-lib.zip"));
+    }
+
+    @Test
+    public void corruptedDistsAreNotCached() throws Exception {
+        String url = server.serve("/dists/acme-lib.zip", Fixtures.dist("acme/lib"));
+        File lock = tmp.newFile("composer.lock");
+        FileUtils.writeStringToFile(lock, Fixtures.lock(
+                Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(new byte[0]))), "UTF-8");
+        File cache = tmp.newFolder("cache");
+
+        new DistPrefetcher(cache.getPath(), 2).invoke(lock, null);
+
+        assertEquals(0, FileUtils.listFiles(cache, null, true).size());
+    }
+
+    @Test
+    public void distsOutsideTheCacheAreNeverWritten() throws Exception {
+        String url = server.serve("/dists/evil.zip", Fixtures.dist("evil"));
+        File lock = tmp.newFile("composer.lock");
+        FileUtils.writeStringToFile(lock, Fixtures.lock(
+                Fixtures.lockedPackage("../../evil", "1.0.0", url, "abc123", ""),
+                Fixtures.lockedPackage("acme/local", "1.0.0", new File(tmp.getRoot(), "composer.lock").toURI().toString(), "abc123", "")), "UTF-8");
+        File cache = tmp.newFolder("work", "cache");
+
+        new DistPrefetcher(cache.getPath(), 2).invoke(lock, null);
+
+        assertEquals(0, server.requests("/dists/evil.zip"));
+        assertEquals(0, FileUtils.listFiles(new File(tmp.getRoot(), "work"), null, true).size());
+    }
+
+    @Test
+    public void distsOfTheControllerRepositoryAreReadFirst() throws Exception {
+        byte[] lib = Fixtures.dist("acme/lib");
+        String url = server.serve("/dists/acme-lib.zip", lib);
+        File lock = tmp.newFile("composer.lock");
+        FileUtils.writeStringToFile(lock, Fixtures.lock(
+                Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(lib))), "UTF-8");
+        File cache = tmp.newFolder("cache");
+
+        new DistPrefetcher(cache.getPath(), 2).withRepository(repository("acme/lib", lib)).invoke(lock, null);
+
+        File cached = new File(cache, "files/acme/lib/" + Fixtures.sha1(url.getBytes("UTF-8")) + ".zip");
+        assertArrayEquals(lib, FileUtils.readFileToByteArray(cached));
+        assertEquals(0, server.requests("/dists/acme-lib.zip"));
+    }
+
+    @Test
+    public void distsMissingOrCorruptedInTheControllerRepositoryAreDownloaded() throws Exception {
+        byte[] lib = Fixtures.dist("acme/lib");
+        byte[] other = Fixtures.dist("acme/other");
+        String libUrl = server.serve("/dists/acme-lib.zip", lib);
+        String otherUrl = server.serve("/dists/acme-other.zip", other);
+        File lock = tmp.newFile("composer.lock");
+        FileUtils.writeStringToFile(lock, Fixtures.lock(
+                Fixtures.lockedPackage("acme/lib", "1.0.0", libUrl, "abc123", Fixtures.sha1(lib)),
+                Fixtures.lockedPackage("acme/other", "1.0.0", otherUrl, "def456", Fixtures.sha1(other))), "UTF-8");
+        File cache = tmp.newFolder("cache");
+
+        new DistPrefetcher(cache.getPath(), 2).withRepository(repository("acme/lib", other)).invoke(lock, null);
+
+        assertArrayEquals(lib, FileUtils.readFileToByteArray(
+                new File(cache, "files/acme/lib/" + Fixtures.sha1(libUrl.getBytes("UTF-8")) + ".zip")));
+        assertArrayEquals(other, FileUtils.readFileToByteArray(
+                new File(cache, "files/acme/other/" + Fixtures.sha1(otherUrl.getBytes("UTF-8")) + ".zip")));
+        assertEquals(1, server.requests("/dists/acme-lib.zip"));
+        assertEquals(1, server.requests("/dists/acme-other.zip"));
+    }
+
+    /**
+     * @return repository holding the given content for the dists of one package only
+     */
+    private static DistPrefetcher.DistSource repository(final String name, final byte[] content) {
+        return new DistPrefetcher.DistSource() {
+            @Override
+            public InputStream open(String file) throws IOException {
+                if (!file.startsWith(name + "/")) {
+                    throw new FileNotFoundException(file);
+                }
+                return new ByteArrayInputStream(content);
+            }
+        };
+    }
+
+    @Test
+    public void cacheFileFollowsComposerRules() throws Exception {
+        assertNull(DistPrefetcher.cacheFile("acme/lib", "https://example.com/lib.zip", "../zip", ""));
+        assertNull(DistPrefetcher.cacheFile("Acme/../lib", "https://example.com/lib.zip", "zip", ""));
+        assertNull(DistPrefetcher.cacheFile("acme/lib", "file:///etc/passwd", "zip", ""));
+        assertFalse(DistPrefetcher.isSafeSegment(".."));
+        assertTrue(DistPrefetcher.isSafeSegment("tar.gz"));
+
+        // composer points archives of well known hosts at the locked reference before hashing them
+        assertEquals("https://api.github.com/repos/acme/lib/zipball/abc123",
+                DistPrefetcher.processUrl("https://github.com/acme/lib/zipball/master", "abc123"));
+        assertEquals("https://api.github.com/repos/acme/lib/zipball/abc123",
+                DistPrefetcher.processUrl("https://api.github.com/repos/acme/lib/zipball/abc123", "abc123"));
+        assertEquals("https://example.com/lib.zip", DistPrefetcher.processUrl("https://example.com/lib.zip", "abc123"));
+        assertEquals("acme/lib/" + Fixtures.sha1("https://api.github.com/repos/acme/lib/zipball/abc123".getBytes("UTF-8")) + ".zip",
+                DistPrefetcher.cacheFile("acme/lib", "https://github.com/acme/lib/zipball/master", "zip", "abc123"));
+    }
+}
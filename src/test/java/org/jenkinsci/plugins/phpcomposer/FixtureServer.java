@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.rules.ExternalResource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP server standing in for getcomposer.org and package hosts, so tests never need the network.
+ * Files are served with a strong ETag, honouring If-None-Match, Range and If-Range like a CDN would;
+ * a connection can be made to drop in the middle of the body with {@link #disconnectAfter}.
+ */
+public class FixtureServer extends ExternalResource {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Map<String, Integer> disconnects = new ConcurrentHashMap<String, Integer>();
+    private HttpServer server;
+
+    @Override
+    protected void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                AtomicInteger count = requests.get(path);
+                if (count == null) {
+                    requests.put(path, count = new AtomicInteger());
+                }
+                count.incrementAndGet();
+                byte[] content = files.get(path);
+                if (content == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                String etag = etag(content);
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                int offset = 0;
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                Matcher m = range == null ? null : RANGE.matcher(range);
+                // a changed file is sent whole, the client starts over
+                if (m != null && m.matches() && (ifRange == null || ifRange.equals(etag))
+                        && Integer.parseInt(m.group(1)) < content.length) {
+                    offset = Integer.parseInt(m.group(1));
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+                    exchange.sendResponseHeaders(206, content.length - offset);
+                } else {
+                    exchange.sendResponseHeaders(200, content.length);
+                }
+                Integer disconnect = disconnects.remove(path);
+                int end = disconnect == null ? content.length : Math.min(content.length, offset + disconnect);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(content, offset, end - offset);
+                    out.flush();
+                    // fewer bytes than announced, the connection is dropped
+                    out.close();
+                } catch (IOException e) {
+                    // expected when disconnecting
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    protected void after() {
+        stop();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public String serve(String path, byte[] content) {
+        files.put(path, content);
+        return url(path);
+    }
+
+    /**
+     * The next response for the path is cut after the given number of body bytes.
+     */
+    public void disconnectAfter(String path, int bytes) {
+        disconnects.put(path, bytes);
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    public int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static String etag(byte[] content) {
+        return "\"" + Fixtures.sha1(content) + "\"";
+    }
+}
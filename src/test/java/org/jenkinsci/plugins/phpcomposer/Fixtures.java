@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Composer packages and lock files written by tests.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return zip archive of a package holding a README and a class
+     */
+    static byte[] dist(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("README"));
+        zip.write(("Package " + name).getBytes("UTF-8"));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("src/Library.php"));
+        zip.write("<?php\n".getBytes("UTF-8"));
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    static JSONObject lockedPackage(String name, String version, String url, String reference, String shasum) {
+        JSONObject dist = new JSONObject();
+        dist.put("type", "zip");
+        dist.put("url", url);
+        dist.put("reference", reference);
+        dist.put("shasum", shasum);
+        JSONObject pkg = new JSONObject();
+        pkg.put("name", name);
+        pkg.put("version", version);
+        pkg.put("dist", dist);
+        pkg.put("type", "library");
+        return pkg;
+    }
+
+    static String lock(JSONObject... packages) {
+        JSONArray locked = new JSONArray();
+        for (JSONObject pkg : packages) {
+            locked.add(pkg);
+        }
+        JSONObject lock = new JSONObject();
+        lock.put("content-hash", "");
+        lock.put("packages", locked);
+        lock.put("packages-dev", new JSONArray());
+        lock.put("aliases", new JSONArray());
+        lock.put("minimum-stability", "stable");
+        lock.put("stability-flags", new JSONArray());
+        lock.put("prefer-stable", false);
+        lock.put("prefer-lowest", false);
+        lock.put("platform", new JSONArray());
+        lock.put("platform-dev", new JSONArray());
+        return lock.toString(2);
+    }
+
+    static String sha1(byte[] content) {
+        try {
+            return Util.toHexString(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.tools.ToolProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done by {@link ComposerBuildWrapper} for every process a build launches, with environments
+ * the size of real builds and several numbers of configured installations.
+ * <ul>
+ *     <li>{@code findInstallationByName}: the public lookup of {@link ComposerPlugin}, on a plugin whose installations
+ *     are published as {@link ComposerPlugin#start()} does once its configuration is loaded, Jenkins is not started;</li>
+ *     <li>{@code launch}: what the decorated launcher of the wrapper does for each process. The lookup is not part of it,
+ *     {@link ComposerBuildContext} resolves the installation once per build and node.</li>
+ * </ul>
+ * Run with {@code mvn test -Pbenchmark}, see {@link LaunchEnvironmentBenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LaunchEnvironmentBenchmark {
+
+    @Param({"200", "500"})
+    public int variables;
+
+    @Param({"1", "10", "100"})
+    public int installations;
+
+    private String[] envs;
+    private EnvVars environment;
+    private ComposerInstallation installation;
+    private ComposerPlugin plugin;
+    private FilePath workspace;
+
+    @Setup
+    public void setUp() {
+        envs = new String[variables];
+        envs[0] = "PATH=/usr/local/bin:/usr/bin:/bin";
+        envs[1] = "TOOLS=/opt/tools";
+        for (int i = 2; i < variables; i++) {
+            envs[i] = "BUILD_VARIABLE_" + i + "=value of build variable " + i;
+        }
+        environment = ComposerBuildWrapper.toEnvVars(envs);
+
+        ComposerInstallation[] configured = new ComposerInstallation[installations];
+        for (int i = 0; i < installations; i++) {
+            ComposerInstallation composer = new ComposerInstallation("composer-" + i, "${TOOLS}/composer-" + i,
+                    Collections.<ToolProperty<?>>emptyList());
+            composer.setCacheDir("${TOOLS}/composer-cache");
+            composer.setMemoryLimit("1G");
+            configured[i] = composer;
+        }
+        plugin = new ComposerPlugin();
+        plugin.publish(configured);
+        // the last installation is the worst case of the former linear lookup
+        installation = configured[installations - 1];
+        workspace = new FilePath(new File("/var/lib/jenkins/workspace/job"));
+    }
+
+    @Benchmark
+    public EnvVars toEnvVars() {
+        return ComposerBuildWrapper.toEnvVars(envs);
+    }
+
+    @Benchmark
+    public ComposerInstallation forEnvironment() {
+        return installation.forEnvironment(environment);
+    }
+
+    @Benchmark
+    public EnvVars buildEnvVars() {
+        EnvVars vars = new EnvVars(environment);
+        installation.buildEnvVars(vars);
+        return vars;
+    }
+
+    @Benchmark
+    public ComposerInstallation findInstallationByName() {
+        return plugin.findInstallationByName(installation.getName());
+    }
+
+    /**
+     * The whole sequence of one launch, as in {@link ComposerBuildWrapper#decorateLauncher}.
+     */
+    @Benchmark
+    public String[] launch() {
+        EnvVars vars = ComposerBuildWrapper.toEnvVars(envs);
+        installation.forEnvironment(vars).buildEnvVars(vars);
+        vars.override("PATH+PATH", new ComposerProject(workspace).getVendorBin().getRemote());
+        return Util.mapToEnv(vars);
+    }
+}
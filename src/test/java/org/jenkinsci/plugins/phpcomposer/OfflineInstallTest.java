@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the real composer against a cache filled by {@link DistPrefetcher} with the network disabled,
+ * proving prefetched dists are where composer looks for them. Skipped when php or composer are not installed,
+ * composer is looked up on PATH or taken from the COMPOSER_BINARY environment variable.
+ */
+public class OfflineInstallTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public FixtureServer server = new FixtureServer();
+
+    @Test
+    public void composerInstallsFromThePrefetchedCache() throws Exception {
+        String composer = System.getenv("COMPOSER_BINARY") != null ? System.getenv("COMPOSER_BINARY") : "composer";
+        assumeTrue(run(tmp.getRoot(), null, "php", "-r", "exit(class_exists('ZipArchive') ? 0 : 1);") == 0);
+        assumeTrue(run(tmp.getRoot(), null, composer, "--version") == 0);
+
+        byte[] lib = Fixtures.dist("acme/lib");
+        String url = server.serve("/dists/acme-lib.zip", lib);
+        File project = tmp.newFolder("project");
+        FileUtils.writeStringToFile(new File(project, "composer.json"), "{\"require\": {\"acme/lib\": \"1.0.0\"}}", "UTF-8");
+        FileUtils.writeStringToFile(new File(project, "composer.lock"), Fixtures.lock(
+                Fixtures.lockedPackage("acme/lib", "1.0.0", url, "abc123", Fixtures.sha1(lib))), "UTF-8");
+        File cache = tmp.newFolder("cache");
+
+        new DistPrefetcher(cache.getPath(), 2).invoke(new File(project, "composer.lock"), null);
+        server.stop();
+
+        File home = tmp.newFolder("home");
+        int exitCode = run(project, new String[]{
+                "COMPOSER_HOME", home.getPath(),
+                "COMPOSER_CACHE_DIR", cache.getPath(),
+                "COMPOSER_DISABLE_NETWORK", "1"
+        }, composer, "install", "--no-interaction", "--no-progress", "--no-plugins", "--no-scripts");
+
+        assertEquals(0, exitCode);
+        assertTrue(new File(project, "vendor/acme/lib/README").isFile());
+    }
+
+    private static int run(File dir, String[] env, String... cmd) throws InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(new ArrayList<String>(Arrays.asList(cmd))).directory(dir).redirectErrorStream(true);
+        if (env != null) {
+            Map<String, String> environment = builder.environment();
+            for (int i = 0; i < env.length; i += 2) {
+                environment.put(env[i], env[i + 1]);
+            }
+        }
+        try {
+            Process process = builder.start();
+            List<String> output = IOUtils.readLines(process.getInputStream());
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                System.out.println(output);
+            }
+            return exitCode;
+        } catch (IOException e) {
+            // not installed
+            return -1;
+        }
+    }
+}
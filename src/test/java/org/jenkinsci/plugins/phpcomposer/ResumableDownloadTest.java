@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.Util;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResumableDownloadTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public FixtureServer server = new FixtureServer();
+
+    private static final String PATH = "/download/composer.phar";
+
+    @Test
+    public void interruptedDownloadIsResumedFromThePart() throws Exception {
+        byte[] content = content(300 * 1024);
+        URL url = new URL(server.serve(PATH, content));
+        File target = new File(tmp.getRoot(), "composer.phar");
+        server.disconnectAfter(PATH, 100 * 1024);
+
+        try {
+            new ResumableDownload(url, target).verify("SHA-256", sha256(content)).fetch(false);
+            fail("the connection was dropped");
+        } catch (IOException expected) {
+            // what arrived is kept
+        }
+        File part = new File(tmp.getRoot(), ".composer.phar.part");
+        long kept = part.length();
+        assertTrue(kept > 0 && kept < content.length);
+        assertFalse(target.exists());
+
+        ResumableDownload download = new ResumableDownload(url, target).verify("SHA-256", sha256(content));
+        assertTrue(download.fetch(false));
+        assertTrue(download.isResumed());
+        assertEquals(content.length - kept, download.getBytes());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+        assertFalse(part.exists());
+    }
+
+    @Test
+    public void unchangedFileIsReused() throws Exception {
+        byte[] content = content(1024);
+        URL url = new URL(server.serve(PATH, content));
+        File target = new File(tmp.getRoot(), "composer.phar");
+
+        assertTrue(new ResumableDownload(url, target).fetch(true));
+        long modified = target.lastModified();
+        assertFalse(new ResumableDownload(url, target).fetch(true));
+        assertEquals(2, server.requests(PATH));
+        assertEquals(modified, target.lastModified());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+
+        byte[] changed = content(2048);
+        server.serve(PATH, changed);
+        assertTrue(new ResumableDownload(url, target).fetch(true));
+        assertArrayEquals(changed, FileUtils.readFileToByteArray(target));
+    }
+
+    @Test
+    public void fileChangedSinceTheInterruptionIsDownloadedAgain() throws Exception {
+        byte[] content = content(300 * 1024);
+        URL url = new URL(server.serve(PATH, content));
+        File target = new File(tmp.getRoot(), "composer.phar");
+        server.disconnectAfter(PATH, 100 * 1024);
+        try {
+            new ResumableDownload(url, target).fetch(false);
+            fail("the connection was dropped");
+        } catch (IOException expected) {
+            // what arrived is kept
+        }
+
+        byte[] changed = content(200 * 1024);
+        server.serve(PATH, changed);
+        ResumableDownload download = new ResumableDownload(url, target).verify("SHA-256", sha256(changed));
+        assertTrue(download.fetch(false));
+        assertFalse(download.isResumed());
+        assertEquals(changed.length, download.getBytes());
+        assertArrayEquals(changed, FileUtils.readFileToByteArray(target));
+    }
+
+    @Test
+    public void checksumMismatchNeverReplacesTheTarget() throws Exception {
+        URL url = new URL(server.serve(PATH, content(1024)));
+        File target = new File(tmp.getRoot(), "composer.phar");
+        FileUtils.writeStringToFile(target, "working composer", "UTF-8");
+
+        try {
+            new ResumableDownload(url, target).verify("SHA-256", sha256("other".getBytes("UTF-8"))).fetch(false);
+            fail("a download not matching its checksum was stored");
+        } catch (IOException expected) {
+            // rejected
+        }
+        assertEquals("working composer", FileUtils.readFileToString(target, "UTF-8"));
+        assertFalse(new File(tmp.getRoot(), ".composer.phar.part").exists());
+        assertFalse(new File(tmp.getRoot(), ".composer.phar.part.validator").exists());
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class VendorCheckTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void upToDateVendorOfComposer2() throws Exception {
+        File project = project(Fixtures.lock(lib("1.0.0", "abc"), tool("2.0.0", "def")),
+                "{\"packages\": [" + lib("1.0.0", "abc") + "," + tool("2.0.0", "def") + "], \"dev\": true, \"dev-package-names\": []}");
+        assertEquals(Collections.<String>emptyList(), new VendorCheck().invoke(project, null));
+    }
+
+    @Test
+    public void differencesWithVendorOfComposer1() throws Exception {
+        File project = project(Fixtures.lock(lib("1.1.0", "abd"), tool("2.0.0", "def")),
+                "[" + lib("1.0.0", "abc") + "," + Fixtures.lockedPackage("acme/old", "0.1.0", "https://example.com/old.zip", "0ld", "") + "]");
+        assertEquals(Arrays.asList(
+                Messages.VendorCheck_Changed("acme/lib", "1.0.0@abc", "1.1.0@abd"),
+                Messages.VendorCheck_Missing("acme/tool", "2.0.0@def"),
+                Messages.VendorCheck_Extraneous("acme/old", "0.1.0@0ld")), new VendorCheck().invoke(project, null));
+    }
+
+    @Test
+    public void nothingInstalled() throws Exception {
+        File project = tmp.newFolder("project");
+        FileUtils.writeStringToFile(new File(project, "composer.lock"), Fixtures.lock(lib("1.0.0", "abc")), "UTF-8");
+        assertEquals(Collections.singletonList(Messages.VendorCheck_NothingInstalled()), new VendorCheck().invoke(project, null));
+    }
+
+    private File project(String lock, String installed) throws Exception {
+        File project = tmp.newFolder("project");
+        FileUtils.writeStringToFile(new File(project, "composer.lock"), lock, "UTF-8");
+        FileUtils.writeStringToFile(new File(project, VendorCheck.INSTALLED_JSON), installed, "UTF-8");
+        return project;
+    }
+
+    private static JSONObject lib(String version, String reference) {
+        return Fixtures.lockedPackage("acme/lib", version, "https://example.com/lib.zip", reference, "");
+    }
+
+    private static JSONObject tool(String version, String reference) {
+        return Fixtures.lockedPackage("acme/tool", version, "https://example.com/tool.zip", reference, "");
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VendorSnapshotsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void snapshotsKeepDotFilesEmptyDirectoriesAndLinks() throws Exception {
+        File vendor = tmp.newFolder("project", "vendor");
+        write(vendor, "acme/lib/.gitattributes", "* text=auto");
+        write(vendor, "acme/lib/.git/HEAD", "ref: refs/heads/master");
+        write(vendor, "acme/lib/bin/tool", "#!/bin/sh");
+        assertTrue(new File(vendor, "acme/lib/empty").mkdirs());
+        if (!Functions.isWindows()) {
+            assertTrue(new File(vendor, "bin").mkdirs());
+            Util.createSymlink(new File(vendor, "bin"), "../acme/lib/bin/tool", "tool", TaskListener.NULL);
+        }
+
+        VendorSnapshots snapshots = new VendorSnapshots(new FilePath(tmp.newFolder("snapshots")), 5);
+        snapshots.capture("key", new FilePath(vendor));
+
+        File restored = tmp.newFolder("other", "vendor");
+        write(restored, "stale/file", "left over");
+        assertTrue(snapshots.restore("key", new FilePath(restored)));
+
+        assertFalse(new File(restored, "stale").exists());
+        assertEquals("* text=auto", read(restored, "acme/lib/.gitattributes"));
+        assertEquals("ref: refs/heads/master", read(restored, "acme/lib/.git/HEAD"));
+        assertTrue(new File(restored, "acme/lib/empty").isDirectory());
+        if (!Functions.isWindows()) {
+            assertTrue(Util.isSymlink(new File(restored, "bin/tool")));
+            assertEquals("#!/bin/sh", read(restored, "bin/tool"));
+        }
+        assertEquals(1, new File(tmp.getRoot(), "other").list().length);
+    }
+
+    @Test
+    public void failedRestoreLeavesVendorUntouched() throws Exception {
+        File snapshotsDir = tmp.newFolder("snapshots");
+        write(snapshotsDir, "broken.tar.gz", "not an archive");
+        File vendor = tmp.newFolder("project", "vendor");
+        write(vendor, "acme/lib/file", "installed");
+
+        try {
+            new VendorSnapshots(new FilePath(snapshotsDir), 5).restore("broken", new FilePath(vendor));
+            fail("corrupted snapshot restored");
+        } catch (IOException expected) {
+        }
+        assertEquals("installed", read(vendor, "acme/lib/file"));
+        assertEquals(1, new File(tmp.getRoot(), "project").list().length);
+    }
+
+    @Test
+    public void missingSnapshotIsNotRestored() throws Exception {
+        VendorSnapshots snapshots = new VendorSnapshots(new FilePath(tmp.newFolder("snapshots")), 5);
+        assertFalse(snapshots.restore("unknown", new FilePath(new File(tmp.getRoot(), "vendor"))));
+    }
+
+    @Test
+    public void retentionDefaultsWhenNotSet() throws Exception {
+        File vendor = tmp.newFolder("vendor");
+        write(vendor, "acme/lib/file", "installed");
+        File snapshotsDir = tmp.newFolder("snapshots");
+        VendorSnapshots snapshots = new VendorSnapshots(new FilePath(snapshotsDir), 0);
+        for (int i = 0; i <= ComposerBuildWrapper.DEFAULT_SNAPSHOT_RETENTION; i++) {
+            snapshots.capture("key" + i, new FilePath(vendor));
+        }
+        assertEquals(ComposerBuildWrapper.DEFAULT_SNAPSHOT_RETENTION, snapshotsDir.list().length);
+    }
+
+    private static void write(File dir, String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(dir, path), content, "UTF-8");
+    }
+
+    private static String read(File dir, String path) throws IOException {
+        return FileUtils.readFileToString(new File(dir, path), "UTF-8");
+    }
+}
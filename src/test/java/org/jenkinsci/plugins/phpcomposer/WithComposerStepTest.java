@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.phpcomposer;
+
+import hudson.EnvVars;
+import hudson.Functions;
+import hudson.tools.ToolProperty;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class WithComposerStepTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File home;
+
+    @Before
+    public void installation() throws Exception {
+        assumeFalse(Functions.isWindows());
+        home = tmp.newFolder("composer");
+        ComposerPlugin.instance().setInstallations(new ComposerInstallation[]{
+                new ComposerInstallation("composer", home.getPath(), Collections.<ToolProperty<?>>emptyList())});
+    }
+
+    @Test
+    public void pathEntriesArePrependedToThePathOfTheBlock() {
+        EnvVars env = new EnvVars("PATH", "/usr/local/bin:/usr/bin:/bin");
+        ComposerInstallation installation = new ComposerInstallation("composer", "/opt/composer", Collections.<ToolProperty<?>>emptyList());
+        Map<String, String> overrides = WithComposerStep.overrides(env, installation);
+        assertFalse(overrides.containsKey("PATH"));
+        assertEquals("/opt/composer", overrides.get("COMPOSER_HOME"));
+
+        EnvVars block = new EnvVars("PATH", "/block/bin:/usr/local/bin:/usr/bin:/bin");
+        WithComposerStep.apply(block, overrides);
+        assertEquals("/opt/composer/vendor/bin:/opt/composer:/block/bin:/usr/local/bin:/usr/bin:/bin", block.get("PATH"));
+    }
+
+    @Test
+    public void blockKeepsThePathOfTheNode() throws Exception {
+        WorkflowRun b = run("withComposer(installation: 'composer') { sh 'echo COMPOSER_HOME=$COMPOSER_HOME; command -v sh' }");
+        j.assertLogContains("COMPOSER_HOME=" + home.getPath(), b);
+    }
+
+    @Test
+    public void phpRunsInsideTheBlock() throws Exception {
+        assumeTrue(new ProcessBuilder("php", "--version").start().waitFor() == 0);
+        WorkflowRun b = run("withComposer(installation: 'composer') { sh 'php --version' }");
+        j.assertLogContains("PHP ", b);
+    }
+
+    @Test
+    public void cacheBudgetOfTheStepIsEnforced() throws Exception {
+        File cache = tmp.newFolder("cache");
+        File old = new File(cache, "files/acme/old/1.zip");
+        FileUtils.writeByteArrayToFile(old, new byte[2 * 1024 * 1024]);
+        assertTrue(old.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+
+        run("withComposer(installation: 'composer', cacheDir: '" + cache.getPath() + "', cacheMaxSizeMb: 1L) { sh 'true' }");
+        assertFalse(old.exists());
+    }
+
+    private WorkflowRun run(String block) throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p" + j.jenkins.getItems().size());
+        p.setDefinition(new CpsFlowDefinition("node { " + block + " }"));
+        return j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+    }
+}